@@ -0,0 +1,71 @@
+package dk.lbloft;
+
+import dk.lbloft.dbc.DbcCanListener;
+import dk.lbloft.dbc.DbcSignal;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of decoding a frame with the CanListener helpers
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CanListenerBenchmark {
+    private final ByteBuffer[] frames = {
+            ByteBuffer.wrap(new byte[] {0x12, 0x34, 0x56, 0x78, (byte) 0x9A, (byte) 0xBC, (byte) 0xDE, (byte) 0xF0}).asReadOnlyBuffer(),
+            ByteBuffer.wrap(new byte[] {0x21, 0x43, 0x65, (byte) 0x87, (byte) 0xA9, (byte) 0xCB, (byte) 0xED, 0x0F}).asReadOnlyBuffer()
+    };
+
+    private final CanListener<?> getByte = CanListener.getByte("Byte", 0, 0x001);
+    private final CanListener<?> getShort = CanListener.getShort("Short", 0, 0x001).setIntMapping(i -> (int) (i * 1.25));
+    private final CanListener<?> getInt = CanListener.getInt("Int", 4, 0x001);
+    private final CanListener<?> getBit = CanListener.getBit("Bit", 5, 0x20, "Open", "Closed", 0x001);
+    private final CanListener<?> getHex = CanListener.getHex(0x001);
+    private final CanListener<?> dbc = new DbcCanListener(new DbcSignal(0x001, "Message", "Signal", 23, 16, false, true, 0.01, -40, "", false, -1));
+
+    private int counter;
+
+    private ByteBuffer next() {
+        /* Alternate between two frames so every value changes */
+        return frames[counter++ & 1];
+    }
+
+    @Benchmark
+    public Object getByte() {
+        getByte.update(0x001, next());
+        return getByte;
+    }
+
+    @Benchmark
+    public Object getShort() {
+        getShort.update(0x001, next());
+        return getShort;
+    }
+
+    @Benchmark
+    public Object getInt() {
+        getInt.update(0x001, next());
+        return getInt;
+    }
+
+    @Benchmark
+    public Object getBit() {
+        getBit.update(0x001, next());
+        return getBit;
+    }
+
+    @Benchmark
+    public Object getHex() {
+        getHex.update(0x001, next());
+        return getHex;
+    }
+
+    @Benchmark
+    public Object dbcSignal() {
+        dbc.update(0x001, next());
+        return dbc;
+    }
+}
@@ -0,0 +1,52 @@
+package dk.lbloft;
+
+import com.google.common.io.ByteStreams;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the ANSI formatting in Console, written to a stream discarding the output
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConsoleBenchmark {
+    private final Console console = new Console(ByteStreams.nullOutputStream()).setSize(120, 40);
+
+    @Benchmark
+    public Console printColored() {
+        console.println("Speed                 42", Console.Color.Default, Console.Color.DarkGray);
+        return console;
+    }
+
+    @Benchmark
+    public Console printFormatted() {
+        console.print("\u2713", Console.Color.Green, Console.Format.Bold, Console.Format.Underline);
+        return console;
+    }
+
+    @Benchmark
+    public Console printLine() {
+        console.printLine(100);
+        return console;
+    }
+
+    @Benchmark
+    public Console printTitle() {
+        console.printTitle("Can data", 100);
+        return console;
+    }
+
+    @Benchmark
+    public Console printFrame() {
+        console.beginFrame();
+        console.printTitle("Can data", 100);
+        for (int i = 0; i < 20; i++) {
+            console.println("Speed                 42", Console.Color.Default, Console.Color.DarkGray);
+        }
+        console.printLine(100);
+        console.endFrame();
+        return console;
+    }
+}
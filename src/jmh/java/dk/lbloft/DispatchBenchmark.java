@@ -0,0 +1,64 @@
+package dk.lbloft;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of dispatching a frame through all the listeners of Main.buildListeners()
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DispatchBenchmark {
+    private static final int[] IDS = {0x3D0, 0x1C4, 0x611, 0x619, 0x3D3, 0x3C5, 0x620, 0x123};
+
+    private final FrameDispatcher dispatcher = new FrameDispatcher();
+    private final byte[] data = new byte[8];
+    /* The same payload every time, like most periodic frames */
+    private final byte[] repeated = {1, 2, 3, 4, 5, 6, 7, 8};
+    private SignalSnapshot snapshot;
+    private long timestamp;
+    private int counter;
+
+    @Setup
+    public void setup() {
+        List<CanListener<?>> listeners = Main.buildListeners();
+        for (CanListener<?> listener : listeners) {
+            dispatcher.add(listener);
+        }
+        snapshot = new SignalSnapshot(listeners);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public FrameDispatcher dispatchAll() {
+        for (int id : IDS) {
+            data[0] = (byte) (counter >> 4);
+            data[1] = (byte) counter++;
+            dispatcher.dispatch(timestamp += 125, id, data, 8);
+        }
+        return dispatcher;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public FrameDispatcher dispatchRepeated() {
+        for (int id : IDS) {
+            dispatcher.dispatch(timestamp += 125, id, repeated, 8);
+        }
+        return dispatcher;
+    }
+
+    @Benchmark
+    public FrameDispatcher dispatchUnknownId() {
+        dispatcher.dispatch(timestamp += 125, 0x7FF, data, 8);
+        return dispatcher;
+    }
+
+    @Benchmark
+    public SignalSnapshot snapshot() {
+        return dispatcher.snapshot(snapshot);
+    }
+}
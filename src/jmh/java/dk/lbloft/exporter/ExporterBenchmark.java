@@ -0,0 +1,64 @@
+package dk.lbloft.exporter;
+
+import com.google.common.io.ByteStreams;
+import dk.lbloft.CanListener;
+import dk.lbloft.Console;
+import dk.lbloft.FrameDispatcher;
+import dk.lbloft.Main;
+import dk.lbloft.SignalSnapshot;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of exporting a snapshot of Main.buildListeners()
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExporterBenchmark {
+    private SignalSnapshot snapshot;
+    private File file;
+    private FileExporter fileExporter;
+    private ConsoleExporter consoleExporter;
+
+    @Setup
+    public void setup() throws IOException {
+        List<CanListener<?>> listeners = Main.buildListeners();
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        byte[] data = {0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08};
+        for (CanListener<?> listener : listeners) {
+            dispatcher.add(listener);
+            for (Integer id : listener.getIds()) {
+                dispatcher.dispatch(1_000_000L, id, data, data.length);
+            }
+        }
+        snapshot = dispatcher.snapshot(new SignalSnapshot(listeners));
+
+        file = File.createTempFile("benchmark", ".log");
+        fileExporter = new FileExporter(file);
+        /* A fixed size, so the measured exports don't ask the terminal for it */
+        consoleExporter = new ConsoleExporter(new Console(ByteStreams.nullOutputStream()).setSize(120, 40));
+    }
+
+    @TearDown
+    public void tearDown() {
+        fileExporter.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public SignalSnapshot fileExporter() {
+        fileExporter.export(snapshot);
+        return snapshot;
+    }
+
+    @Benchmark
+    public SignalSnapshot consoleExporter() {
+        consoleExporter.export(snapshot);
+        return snapshot;
+    }
+}
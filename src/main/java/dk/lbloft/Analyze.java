@@ -0,0 +1,108 @@
+package dk.lbloft;
+
+import dk.lbloft.analysis.TripAnalyzer;
+import dk.lbloft.analysis.TripSummary;
+import dk.lbloft.capture.CaptureFormat;
+import dk.lbloft.dbc.DbcParser;
+import dk.lbloft.dbc.DbcSignal;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+@CommandLine.Command(name = "analyze", description = "Summarize the trips of many captures in parallel")
+public class Analyze implements Callable<Integer> {
+    @CommandLine.Parameters(description = "Captures, or dirs with captures")
+    private List<File> inputs = new ArrayList<>();
+
+    @CommandLine.Option(names = {"-d", "--dbc"}, description = "DBC file with extra signals to decode, can be repeated")
+    private List<File> dbcFiles = new ArrayList<>();
+
+    @CommandLine.Option(names = {"--segment"}, description = "Max frames decoded as one task", defaultValue = "" + TripAnalyzer.DEFAULT_SEGMENT_RECORDS)
+    private long segment;
+
+    @CommandLine.Option(names = {"-t", "--threads"}, description = "Number of threads, all processors if not set")
+    private int threads;
+
+    @CommandLine.Option(names = {"-o", "--out"}, description = "Write the report as CSV")
+    private File out;
+
+    @Override
+    public Integer call() throws Exception {
+        List<File> captures = new ArrayList<>();
+        for (File input : inputs) {
+            if (input.isDirectory()) {
+                File[] files = input.listFiles((dir, name) -> name.endsWith(CaptureFormat.EXTENSION));
+                if (files != null) {
+                    Arrays.sort(files);
+                    captures.addAll(Arrays.asList(files));
+                }
+            } else {
+                captures.add(input);
+            }
+        }
+
+        /* DBC files are parsed once, every segment compiles its own listeners */
+        List<DbcSignal> signals = new ArrayList<>();
+        for (File dbcFile : dbcFiles) {
+            signals.addAll(DbcParser.parse(dbcFile));
+        }
+        TripAnalyzer analyzer = new TripAnalyzer(() -> {
+            List<CanListener<?>> listeners = Main.buildListeners();
+            listeners.addAll(DbcParser.compile(signals));
+            return listeners;
+        }, segment);
+
+        ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads) : ForkJoinPool.commonPool();
+        long started = System.nanoTime();
+        List<TripSummary> summaries;
+        try {
+            summaries = analyzer.analyze(pool, captures);
+        } finally {
+            /* The common pool is shared and can't be shut down */
+            if (pool != ForkJoinPool.commonPool()) pool.shutdown();
+        }
+        long elapsed = System.nanoTime() - started;
+        summaries.sort(Comparator.comparingLong(TripSummary::getStart));
+        TripSummary total = TripSummary.total("Total", summaries);
+
+        if (out != null) {
+            try (PrintStream csv = new PrintStream(out)) {
+                csv.println("\"Trip\", \"Start\", \"Duration (s)\", \"Frames\", \"Distance\", \"Fuel Used (l)\", \"Max RPM\", \"Speed Limiter (s)\"");
+                for (TripSummary summary : summaries) {
+                    csv.println(String.format("\"%s\", \"%tF %<tT\", %.1f, %d, %d, %.3f, %d, %.1f", summary.getName(),
+                            new Date(summary.getStart() / 1000), summary.getDuration() / 1e6, summary.getFrames(),
+                            summary.getDistance(), summary.getFuelUsed(), summary.getMaxRpm(), summary.getLimiterMicros() / 1e6));
+                }
+            }
+        }
+
+        Console console = Console.out;
+        console.printTitle("Trips");
+        for (TripSummary summary : summaries) {
+            print(console, summary);
+        }
+        console.printLine();
+        print(console, total);
+        console.ok(String.format("Analyzed %d frames of %d captures in %s on %d threads", total.getFrames(), summaries.size(),
+                Console.toPrittyTime(elapsed, TimeUnit.NANOSECONDS), pool.getParallelism()));
+        return summaries.size() == captures.size() ? 0 : 1;
+    }
+
+    private static void print(Console console, TripSummary summary) {
+        console.println(String.format("%-32s %20s %12s %8d km %9.2f l %6d rpm %12s limiter",
+                summary.getName(),
+                summary.getFrames() == 0 ? "" : String.format("%tF %<tR", new Date(summary.getStart() / 1000)),
+                Console.toPrittyTime(TimeUnit.MICROSECONDS.toMillis(summary.getDuration())),
+                summary.getDistance(), summary.getFuelUsed(), summary.getMaxRpm(),
+                Console.toPrittyTime(TimeUnit.MICROSECONDS.toMillis(summary.getLimiterMicros()))));
+    }
+}
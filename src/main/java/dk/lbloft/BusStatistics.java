@@ -0,0 +1,418 @@
+package dk.lbloft;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Statistics per can id of the frames on a bus: count, rate, inter-arrival gaps, jitter,
+ * age of the last frame and the load of the bus.
+ *
+ * Recorded by the dispatching thread for every frame. The values are kept in primitive arrays
+ * indexed by id, extended ids get slots after the standard ids found in an open addressing table,
+ * so recording doesn't allocate. Times are frame times in micros. Rate and jitter are moving averages
+ * over the recent frames.
+ *
+ * The getters of an id read the values while they are recorded, use {@link #snapshot(Snapshot)} to read
+ * the values of all ids between two frames.
+ */
+public class BusStatistics {
+    public static final int DEFAULT_BITRATE = 500_000;
+
+    /* A gap this many times the average gap counts as a missed frame */
+    public static final int GAP_FACTOR = 3;
+
+    private static final int MAX_EXTENDED = 512;
+    private static final int SLOTS = FrameDispatcher.STANDARD_IDS + MAX_EXTENDED;
+    /* At most half full, so probing stays short */
+    private static final int TABLE_BITS = 10;
+    private static final long LOAD_WINDOW_MICROS = 1_000_000;
+    /* Weight of a new gap in the moving averages */
+    private static final double ALPHA = 1 / 16.0;
+
+    @Getter
+    private final String name;
+
+    private final CanClock clock;
+
+    @Getter
+    private int bitrate = DEFAULT_BITRATE;
+
+    /* Slot + 1 of the extended ids by hash, 0 if free */
+    private final int[] extendedSlots = new int[1 << TABLE_BITS];
+    /* Written after a slot is added, so other threads see the slot */
+    private volatile int extendedCount;
+    /* Held for writing by the dispatcher while it records */
+    private StampedLock lock = new StampedLock();
+    private final int[] ids = new int[SLOTS];
+    private final long[] counts = new long[SLOTS];
+    private final long[] lastSeen = new long[SLOTS];
+    private final long[] minGap = new long[SLOTS];
+    private final long[] maxGap = new long[SLOTS];
+    private final long[] sumGap = new long[SLOTS];
+    private final long[] gaps = new long[SLOTS];
+    private final double[] averageGap = new double[SLOTS];
+    private final double[] jitter = new double[SLOTS];
+
+    private long windowStart = -1;
+    private long windowBits;
+    private volatile double load;
+    private volatile long lastFrame;
+
+    /**
+     * @param name Name of the bus
+     * @param clock Clock giving the age of the last frames, the system clock for a live bus
+     */
+    public BusStatistics(String name, CanClock clock) {
+        this.name = name;
+        this.clock = clock;
+    }
+
+    /**
+     * Bitrate of the bus used for the load
+     */
+    public BusStatistics setBitrate(int bitrate) {
+        this.bitrate = bitrate;
+        return this;
+    }
+
+    /**
+     * Read the values consistently with the lock the frames are recorded under
+     */
+    void setLock(StampedLock lock) {
+        this.lock = lock;
+    }
+
+    /**
+     * Record a frame, ids above 0x7FF are extended
+     */
+    public void record(long timestamp, int id, int length) {
+        record(timestamp, id, !isStandard(id), length);
+    }
+
+    /**
+     * Record a frame, called by the dispatching thread holding the write lock of the dispatcher
+     * @param timestamp Frame time in micros
+     * @param id Can id
+     * @param extended True for 29 bit ids, also below 0x800
+     * @param length Number of data bytes
+     */
+    public void record(long timestamp, int id, boolean extended, int length) {
+        int slot = slot(id, extended);
+        if (slot >= 0) {
+            long count = counts[slot];
+            if (count > 0) {
+                long gap = timestamp - lastSeen[slot];
+                if (count == 1) {
+                    minGap[slot] = gap;
+                    maxGap[slot] = gap;
+                    averageGap[slot] = gap;
+                } else {
+                    if (gap < minGap[slot]) minGap[slot] = gap;
+                    if (gap > maxGap[slot]) maxGap[slot] = gap;
+                    if (gap > GAP_FACTOR * averageGap[slot]) gaps[slot]++;
+                    jitter[slot] += (Math.abs(gap - averageGap[slot]) - jitter[slot]) * ALPHA;
+                    averageGap[slot] += (gap - averageGap[slot]) * ALPHA;
+                }
+                sumGap[slot] += gap;
+            }
+            lastSeen[slot] = timestamp;
+            counts[slot] = count + 1;
+        }
+
+        windowBits += frameBits(extended, length);
+        if (windowStart < 0) {
+            windowStart = timestamp;
+        } else if (timestamp - windowStart >= LOAD_WINDOW_MICROS) {
+            load = windowBits * 100.0 * 1_000_000 / ((double) bitrate * (timestamp - windowStart));
+            windowStart = timestamp;
+            windowBits = 0;
+        }
+        lastFrame = timestamp;
+    }
+
+    /**
+     * Approximate bits on the wire for a frame, including a typical amount of stuff bits
+     */
+    static int frameBits(boolean extended, int length) {
+        int bits = (extended ? 67 : 47) + 8 * Math.min(length, 8);
+        return bits + bits / 10;
+    }
+
+    private static boolean isStandard(int id) {
+        return id >= 0 && id < FrameDispatcher.STANDARD_IDS;
+    }
+
+    /**
+     * The slot of an id, extended ids get slots after the standard ids even if they are below 0x800
+     */
+    private int slot(int id, boolean extended) {
+        if (!extended && isStandard(id)) {
+            ids[id] = id;
+            return id;
+        }
+        int mask = extendedSlots.length - 1;
+        for (int i = hash(id); ; i = (i + 1) & mask) {
+            int slot = extendedSlots[i] - 1;
+            if (slot < 0) {
+                int count = extendedCount;
+                if (count == MAX_EXTENDED) return -1;
+                slot = FrameDispatcher.STANDARD_IDS + count;
+                ids[slot] = id;
+                extendedSlots[i] = slot + 1;
+                extendedCount = count + 1;
+                return slot;
+            }
+            if (ids[slot] == id) return slot;
+        }
+    }
+
+    /**
+     * The slot of an id, ids above 0x7FF are extended
+     */
+    private int find(int id) {
+        if (isStandard(id)) return id;
+        if (extendedCount == 0) return -1;
+        int mask = extendedSlots.length - 1;
+        for (int i = hash(id); ; i = (i + 1) & mask) {
+            int slot = extendedSlots[i] - 1;
+            if (slot < 0) return -1;
+            if (ids[slot] == id) return slot;
+        }
+    }
+
+    private static int hash(int id) {
+        return (id * 0x9E3779B9) >>> (32 - TABLE_BITS);
+    }
+
+    /**
+     * The ids seen, standard ids first
+     */
+    public List<Integer> getIds() {
+        List<Integer> seen = new ArrayList<>();
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (counts[slot] > 0) seen.add(ids[slot]);
+        }
+        return seen;
+    }
+
+    public long getCount(int id) {
+        int slot = find(id);
+        return slot < 0 ? 0 : counts[slot];
+    }
+
+    /**
+     * Frames per second over the recent frames
+     */
+    public double getRate(int id) {
+        int slot = find(id);
+        return slot < 0 || averageGap[slot] <= 0 ? 0 : 1_000_000 / averageGap[slot];
+    }
+
+    public long getMinGap(int id) {
+        int slot = find(id);
+        return slot < 0 ? 0 : minGap[slot];
+    }
+
+    /**
+     * Mean gap between the frames of the id over all frames, in micros
+     */
+    public long getMeanGap(int id) {
+        int slot = find(id);
+        return slot < 0 || counts[slot] < 2 ? 0 : sumGap[slot] / (counts[slot] - 1);
+    }
+
+    public long getMaxGap(int id) {
+        int slot = find(id);
+        return slot < 0 ? 0 : maxGap[slot];
+    }
+
+    /**
+     * Mean deviation of the recent gaps from their average, in micros
+     */
+    public double getJitter(int id) {
+        int slot = find(id);
+        return slot < 0 ? 0 : jitter[slot];
+    }
+
+    /**
+     * Number of gaps longer than {@link #GAP_FACTOR} times the average gap
+     */
+    public long getGaps(int id) {
+        int slot = find(id);
+        return slot < 0 ? 0 : gaps[slot];
+    }
+
+    /**
+     * Micros since the last frame of the id, -1 if it hasn't been seen
+     */
+    public long getAge(int id) {
+        int slot = find(id);
+        return slot < 0 || counts[slot] == 0 ? -1 : clock.currentTimeMicros() - lastSeen[slot];
+    }
+
+    /**
+     * True if the id is overdue, it hasn't been seen for {@link #GAP_FACTOR} times its average gap
+     */
+    public boolean isStale(int id) {
+        int slot = find(id);
+        return slot >= 0 && counts[slot] > 1 && getAge(id) > GAP_FACTOR * averageGap[slot];
+    }
+
+    /**
+     * Copy the values of all ids seen between two frames, without blocking the dispatching thread
+     * @param snapshot The snapshot to fill, reused between calls
+     * @return The snapshot
+     */
+    public Snapshot snapshot(Snapshot snapshot) {
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                snapshot.copy(this);
+                if (lock.validate(stamp)) {
+                    snapshot.now = clock.currentTimeMicros();
+                    return snapshot;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Load of the bus in percent of the bitrate over the last second, 0 when the bus is quiet
+     */
+    public double getLoad() {
+        return clock.currentTimeMicros() - lastFrame > 2 * LOAD_WINDOW_MICROS ? 0 : load;
+    }
+
+    /**
+     * Listener without ids giving the bus load to exporters, like RunTime
+     */
+    public CanListener<Double> loadListener() {
+        return new CanListener<Double>("Bus Load " + name) {
+            @Override
+            public Double getValue() {
+                return Math.round(getLoad() * 10) / 10.0;
+            }
+        };
+    }
+
+    /**
+     * The values of the ids seen at one instant, indexed from 0 to {@link #size()} in the order of {@link #getIds()}
+     */
+    public static class Snapshot {
+        private final int[] ids = new int[SLOTS];
+        private final boolean[] extended = new boolean[SLOTS];
+        private final long[] counts = new long[SLOTS];
+        private final long[] lastSeen = new long[SLOTS];
+        private final long[] minGap = new long[SLOTS];
+        private final long[] maxGap = new long[SLOTS];
+        private final long[] sumGap = new long[SLOTS];
+        private final long[] gaps = new long[SLOTS];
+        private final double[] averageGap = new double[SLOTS];
+        private final double[] jitter = new double[SLOTS];
+        private int size;
+        private long now;
+
+        private void copy(BusStatistics statistics) {
+            int n = 0;
+            for (int slot = 0; slot < SLOTS; slot++) {
+                long count = statistics.counts[slot];
+                if (count == 0) continue;
+                ids[n] = statistics.ids[slot];
+                extended[n] = slot >= FrameDispatcher.STANDARD_IDS;
+                counts[n] = count;
+                lastSeen[n] = statistics.lastSeen[slot];
+                minGap[n] = statistics.minGap[slot];
+                maxGap[n] = statistics.maxGap[slot];
+                sumGap[n] = statistics.sumGap[slot];
+                gaps[n] = statistics.gaps[slot];
+                averageGap[n] = statistics.averageGap[slot];
+                jitter[n] = statistics.jitter[slot];
+                n++;
+            }
+            size = n;
+        }
+
+        /**
+         * Number of ids seen
+         */
+        public int size() {
+            return size;
+        }
+
+        public int getId(int index) {
+            return ids[index];
+        }
+
+        /**
+         * True for 29 bit ids, also below 0x800
+         */
+        public boolean isExtended(int index) {
+            return extended[index];
+        }
+
+        /**
+         * The id in hex, extended ids with 8 digits like socketcand, so they differ from standard ids
+         */
+        public String formatId(int index) {
+            return extended[index] ? String.format("%08X", ids[index]) : Integer.toHexString(ids[index]).toUpperCase();
+        }
+
+        public long getCount(int index) {
+            return counts[index];
+        }
+
+        /**
+         * Frames per second over the recent frames
+         */
+        public double getRate(int index) {
+            return averageGap[index] <= 0 ? 0 : 1_000_000 / averageGap[index];
+        }
+
+        public long getMinGap(int index) {
+            return minGap[index];
+        }
+
+        /**
+         * Mean gap between the frames over all frames, in micros
+         */
+        public long getMeanGap(int index) {
+            return counts[index] < 2 ? 0 : sumGap[index] / (counts[index] - 1);
+        }
+
+        public long getMaxGap(int index) {
+            return maxGap[index];
+        }
+
+        /**
+         * Mean deviation of the recent gaps from their average, in micros
+         */
+        public double getJitter(int index) {
+            return jitter[index];
+        }
+
+        /**
+         * Number of gaps longer than {@link #GAP_FACTOR} times the average gap
+         */
+        public long getGaps(int index) {
+            return gaps[index];
+        }
+
+        /**
+         * Micros since the last frame when the snapshot was taken
+         */
+        public long getAge(int index) {
+            return now - lastSeen[index];
+        }
+
+        /**
+         * True if the id was overdue when the snapshot was taken
+         */
+        public boolean isStale(int index) {
+            return counts[index] > 1 && getAge(index) > GAP_FACTOR * averageGap[index];
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package dk.lbloft;
+
+import com.github.kayak.core.Bus;
+import com.github.kayak.core.BusURL;
+import com.github.kayak.core.TimeSource;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+/**
+ * Keep a connection to a socketcand bus alive.
+ *
+ * The connection is considered lost when no frames arrive within the stale timeout. A new {@link Bus}
+ * is then connected and set up again, waiting with exponential backoff between attempts. The backoff
+ * starts over once a connection delivers frames.
+ *
+ * Frames that arrive but fail to decode don't stop the counter of received frames, so the supervisor also
+ * watches a count of failures and warns while it grows.
+ */
+@Log
+public class BusSupervisor implements Closeable {
+    private final String host;
+    private final int port;
+    private final String busName;
+    private final Consumer<Bus> setup;
+    private final LongSupplier frames;
+    private final Thread thread;
+    private LongSupplier errors = () -> 0;
+
+    private long staleNanos = TimeUnit.SECONDS.toNanos(10);
+    private long initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(500);
+    private long maxBackoffNanos = TimeUnit.SECONDS.toNanos(60);
+
+    private volatile boolean running = true;
+    private volatile TimeSource timeSource;
+
+    /**
+     * Number of successful connections
+     */
+    @Getter
+    private volatile long connects;
+
+    /**
+     * Number of times the connection was lost
+     */
+    @Getter
+    private volatile long disconnects;
+
+    /**
+     * @param host Host running socketcand
+     * @param port Port of socketcand
+     * @param busName Name of the bus, eg. can0
+     * @param setup Subscribes listeners on each new Bus
+     * @param frames Count of the frames received, which must grow while the connection is alive
+     */
+    public BusSupervisor(String host, int port, String busName, Consumer<Bus> setup, LongSupplier frames) {
+        this.host = host;
+        this.port = port;
+        this.busName = busName;
+        this.setup = setup;
+        this.frames = frames;
+        this.thread = new Thread(this::supervise, "bus-supervisor-" + busName);
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Reconnect when no frames have arrived for this long
+     */
+    public BusSupervisor staleTimeout(long timeout, TimeUnit unit) {
+        this.staleNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * Wait between reconnects, starting at initial and doubling up to max
+     */
+    public BusSupervisor backoff(long initial, long max, TimeUnit unit) {
+        this.initialBackoffNanos = unit.toNanos(initial);
+        this.maxBackoffNanos = unit.toNanos(max);
+        return this;
+    }
+
+    /**
+     * Warn when this count of frames failing to decode grows
+     */
+    public BusSupervisor errors(LongSupplier errors) {
+        this.errors = errors;
+        return this;
+    }
+
+    public BusSupervisor start() {
+        thread.start();
+        return this;
+    }
+
+    public boolean isConnected() {
+        return timeSource != null;
+    }
+
+    private void supervise() {
+        long backoff = initialBackoffNanos;
+        while (running) {
+            if (connect()) {
+                long count = frames.getAsLong();
+                long lastFrame = System.nanoTime();
+                boolean delivered = false;
+                long failed = errors.getAsLong();
+                while (running && System.nanoTime() - lastFrame < staleNanos) {
+                    LockSupport.parkNanos(this, Math.min(staleNanos / 4, TimeUnit.SECONDS.toNanos(1)));
+                    long current = frames.getAsLong();
+                    if (current != count) {
+                        count = current;
+                        lastFrame = System.nanoTime();
+                        delivered = true;
+                    }
+                    long failures = errors.getAsLong();
+                    if (failures != failed) {
+                        log.warning(String.format("%d frames from %s failed to decode, %d in total",
+                                failures - failed, busName, failures));
+                        failed = failures;
+                    }
+                }
+                disconnect();
+                if (!running) break;
+                disconnects++;
+                log.warning(String.format("No frames from %s on %s:%d for %ds, reconnecting",
+                        busName, host, port, TimeUnit.NANOSECONDS.toSeconds(staleNanos)));
+                if (delivered) backoff = initialBackoffNanos;
+            }
+            LockSupport.parkNanos(this, backoff);
+            backoff = Math.min(backoff * 2, maxBackoffNanos);
+        }
+    }
+
+    private boolean connect() {
+        try {
+            BusURL url = new BusURL(host, port, busName);
+            if (!url.checkConnection()) {
+                log.fine(String.format("Unable to connect to %s on %s:%d", busName, host, port));
+                return false;
+            }
+            Bus bus = new Bus();
+            TimeSource timeSource = new TimeSource();
+            bus.setConnection(url);
+            bus.setTimeSource(timeSource);
+            setup.accept(bus);
+            /* Starting the TimeSource makes the Bus connect and deliver frames */
+            timeSource.play();
+            this.timeSource = timeSource;
+            connects++;
+            log.info(String.format("Connected to %s on %s:%d", busName, host, port));
+            return true;
+        } catch (Exception e) {
+            log.log(Level.FINE, String.format("Unable to connect to %s on %s:%d", busName, host, port), e);
+            return false;
+        }
+    }
+
+    private void disconnect() {
+        try {
+            timeSource.stop();
+        } catch (Exception e) {
+            log.log(Level.FINE, "Ignore exception: " + e.getMessage(), e);
+        }
+        timeSource = null;
+    }
+
+    /**
+     * Disconnect from the bus and stop reconnecting
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
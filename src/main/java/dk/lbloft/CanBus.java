@@ -0,0 +1,82 @@
+package dk.lbloft;
+
+import com.github.kayak.core.FrameListener;
+import dk.lbloft.metrics.Latencies;
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.util.Collection;
+
+/**
+ * A bus with its own listeners, decoded on its own thread.
+ *
+ * Frames of the bus go through a {@link FramePipeline} to the dispatcher of the bus, so the buses
+ * don't hold up each other, and the connection is kept alive by a {@link BusSupervisor}.
+ * {@link BusStatistics} of the frames are kept, and the bus load is added to the listeners.
+ */
+@Getter
+public class CanBus implements Closeable {
+    private final int index;
+    private final String name;
+    private final FrameDispatcher dispatcher = new FrameDispatcher();
+    private final BusStatistics statistics;
+    private final FramePipeline pipeline;
+    private final BusSupervisor supervisor;
+
+    /**
+     * @param index Index of the bus, written in recordings
+     * @param host Host running socketcand
+     * @param port Port of socketcand
+     * @param name Name of the bus, eg. can0
+     * @param listeners The listeners decoding the frames of this bus
+     * @param queueSize Frames queued between the bus and the listeners
+     * @param overflow What to do when the queue is full
+     * @param tap Gets every frame of the bus on the delivery thread, eg. for recording, may be null
+     * @param latencies Where to record the latencies of the frames, may be null
+     */
+    public CanBus(int index, String host, int port, String name, Collection<? extends CanListener<?>> listeners,
+                  int queueSize, FramePipeline.OverflowPolicy overflow, FrameListener tap, Latencies latencies) {
+        this.index = index;
+        this.name = name;
+        for (CanListener<?> listener : listeners) {
+            dispatcher.add(listener);
+        }
+        /* Frames have the time of socketcand, the age of the last frames is measured against the system clock */
+        this.statistics = new BusStatistics(name, CanClock.SYSTEM);
+        dispatcher.setStatistics(statistics);
+        dispatcher.add(statistics.loadListener());
+        dispatcher.setLatencies(latencies);
+        this.pipeline = new FramePipeline(dispatcher, queueSize, overflow, "frame-pipeline-" + name, latencies);
+        this.supervisor = new BusSupervisor(host, port, name, bus -> {
+            dispatcher.subscribe(bus, pipeline);
+            if (tap != null) bus.addFrameListener(tap);
+        }, pipeline::getReceived).errors(pipeline::getFailures);
+    }
+
+    public CanBus start() {
+        pipeline.start();
+        supervisor.start();
+        return this;
+    }
+
+    /**
+     * Counters of the bus for the log
+     */
+    public String getStats() {
+        long dispatched = dispatcher.getDispatched();
+        return String.format("%s: frames received %d, dropped %d, queued %d, waits %d, repeated %.1f%%, errors %d, connects %d, disconnects %d",
+                name, pipeline.getReceived(), pipeline.getDropped(), pipeline.size(), pipeline.getBlocked(),
+                dispatched == 0 ? 0.0 : 100.0 * dispatcher.getRepeated() / dispatched,
+                pipeline.getFailures(),
+                supervisor.getConnects(), supervisor.getDisconnects());
+    }
+
+    /**
+     * Disconnect and dispatch the frames already queued
+     */
+    @Override
+    public void close() {
+        supervisor.close();
+        pipeline.close();
+    }
+}
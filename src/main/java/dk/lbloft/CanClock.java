@@ -0,0 +1,24 @@
+package dk.lbloft;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Source of the current time for listeners.
+ * Listeners should use their clock instead of the system time, so derived values
+ * follow the time of the frames, also when a capture is replayed faster than real time.
+ */
+public interface CanClock {
+    CanClock SYSTEM = () -> TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+
+    /**
+     * @return The current time in micros
+     */
+    long currentTimeMicros();
+
+    /**
+     * @return The current time in millis
+     */
+    default long currentTimeMillis() {
+        return TimeUnit.MICROSECONDS.toMillis(currentTimeMicros());
+    }
+}
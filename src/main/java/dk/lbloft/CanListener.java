@@ -11,6 +11,8 @@ import java.util.TreeSet;
 import java.util.function.Function;
 
 public abstract class CanListener<T> implements FrameListener {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
     @Getter
     private String name;
 
@@ -19,11 +21,27 @@ public abstract class CanListener<T> implements FrameListener {
 
     private Function<T, T> mapping = t -> t;
 
+    @Getter
+    private CanClock clock = CanClock.SYSTEM;
+
     @Getter
     private T value = null;
 
     @Getter
-    private boolean changed;
+    boolean changed;
+
+    /* Keeps the numeric values of the last window of time, if set */
+    @Getter
+    RollingWindow window;
+
+    /* Signals derived from this one, set by the dispatcher */
+    DerivedSignal[] dependents = DerivedSignal.NONE;
+
+    /**
+     * True if the ids are 29 bit ids even below 0x800, ids above 0x7FF are always extended
+     */
+    @Getter
+    private boolean extended;
 
     public CanListener(String name, Integer ... ids) {
         this.name = name;
@@ -35,6 +53,40 @@ public abstract class CanListener<T> implements FrameListener {
         return this;
     }
 
+    /**
+     * Listen for 29 bit ids, needed for extended ids below 0x800. Must be set before the listener is added to a dispatcher
+     */
+    public CanListener<T> setExtended(boolean extended) {
+        this.extended = extended;
+        return this;
+    }
+
+    /**
+     * True if frames of the id are extended frames
+     */
+    boolean isExtended(int id) {
+        return extended || id < 0 || id >= FrameDispatcher.STANDARD_IDS;
+    }
+
+    /**
+     * Keep the numeric values of the listener in a rolling window, to aggregate them with {@link WindowAggregate}s.
+     * Must be set before the listener is added to a dispatcher, which then delivers it every frame
+     * @param window The window, or null to stop keeping values
+     */
+    public CanListener<T> setWindow(RollingWindow window) {
+        this.window = window;
+        return this;
+    }
+
+    /**
+     * Set the clock used to get the time of the frame being handled
+     * @param clock The clock
+     */
+    public CanListener<T> setClock(CanClock clock) {
+        this.clock = clock;
+        return this;
+    }
+
     @Override
     public final void newFrame(Frame frame) {
         newFrame(frame.getIdentifier(), ByteBuffer.wrap(frame.getData()));
@@ -48,10 +100,40 @@ public abstract class CanListener<T> implements FrameListener {
      * @return The calculated value
      */
     public final T newFrame(int id, ByteBuffer data) {
+        update(id, data);
+        return getValue();
+    }
+
+    /**
+     * Decode a frame and update the value
+     * Primitive listeners override this to avoid boxing on every frame
+     * @param id Can id
+     * @param data Can data
+     */
+    void update(int id, ByteBuffer data) {
         T newValue = mapping.apply(handle(id, data));
-        changed = value == null || value.equals(newValue);
+        changed = value == null || !value.equals(newValue);
+        value = newValue;
+        if (window != null && newValue instanceof Number) window.add(clock.currentTimeMicros(), ((Number) newValue).doubleValue());
         if(changed) onChange(newValue);
-        return value = newValue;
+    }
+
+    /**
+     * Copy the current value into a snapshot
+     * @param snapshot The snapshot
+     * @param index Index of the listener in the snapshot
+     */
+    void snapshot(SignalSnapshot snapshot, int index) {
+        snapshot.setObject(index, getValue());
+    }
+
+    /**
+     * Listeners decoding the same value from the same payload can skip frames repeating the previous payload
+     * of the id, listeners keeping state between frames must see every frame
+     * @return False if the listener must see every frame
+     */
+    protected boolean skipsRepeatedFrames() {
+        return window == null;
     }
 
     /**
@@ -65,14 +147,14 @@ public abstract class CanListener<T> implements FrameListener {
     }
 
     /**
-     * Tricker when the value is changed
+     * Tricker when the value is changed, after the new value is stored, so {@link #getValue()} returns it
      * @param value The new value
      */
     protected void onChange(T value) {}
 
     @Override
     public String toString() {
-        return String.format("%s: %s", name, value.toString());
+        return String.format("%s: %s", name, getValue());
     }
 
     // Helpers
@@ -85,26 +167,34 @@ public abstract class CanListener<T> implements FrameListener {
         };
     }
 
-    public static CanListener<Integer> getByte(String name, int pos, Integer ... ids) {
-        return new CanListener<Integer>(name, ids) {
-            public Integer handle(int id, ByteBuffer data) {
+    public static IntCanListener getByte(String name, int pos, Integer ... ids) {
+        return new IntCanListener(name, ids) {
+            public int handleInt(int id, ByteBuffer data) {
                 return data.get(pos) & 0xFF;
             }
         };
     }
 
-    public static CanListener<Integer> getShort(String name, int pos, Integer ... ids) {
-        return new CanListener<Integer>(name, ids) {
-            public Integer handle(int id, ByteBuffer data) {
+    public static IntCanListener getShort(String name, int pos, Integer ... ids) {
+        return new IntCanListener(name, ids) {
+            public int handleInt(int id, ByteBuffer data) {
                 return data.getShort(pos) & 0xFFFF;
             }
         };
     }
 
-    public static CanListener<Integer> getInt(String name, int pos, Integer ... ids) {
-        return new CanListener<Integer>(name, ids) {
-            public Integer handle(int id, ByteBuffer data) {
-                return data.getInt(pos) & 0xFFFFFFFF;
+    public static IntCanListener getInt(String name, int pos, Integer ... ids) {
+        return new IntCanListener(name, ids) {
+            public int handleInt(int id, ByteBuffer data) {
+                return data.getInt(pos);
+            }
+        };
+    }
+
+    public static LongCanListener getUnsignedInt(String name, int pos, Integer ... ids) {
+        return new LongCanListener(name, ids) {
+            public long handleLong(int id, ByteBuffer data) {
+                return data.getInt(pos) & 0xFFFFFFFFL;
             }
         };
     }
@@ -117,13 +207,15 @@ public abstract class CanListener<T> implements FrameListener {
         return new CanListener<String>(String.format("%03x", id), id) {
             @Override
             public String handle(int id, ByteBuffer data) {
-                StringBuilder sb = new StringBuilder();
-                try {
-                    for (int i = pos; i < pos + size; i++) {
-                        sb.append(String.format(" %02x", data.get(i) & 0xFF));
-                    }
-                } catch (IndexOutOfBoundsException e) {}
-                return sb.toString().trim();
+                int end = Math.min(pos + size, data.limit());
+                if (end <= pos) return "";
+                char[] chars = new char[(end - pos) * 3 - 1];
+                for (int i = pos, c = 0; i < end; i++) {
+                    if (c > 0) chars[c++] = ' ';
+                    chars[c++] = HEX[(data.get(i) >> 4) & 0xF];
+                    chars[c++] = HEX[data.get(i) & 0xF];
+                }
+                return new String(chars);
             }
         };
     }
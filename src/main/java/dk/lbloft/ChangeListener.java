@@ -0,0 +1,13 @@
+package dk.lbloft;
+
+/**
+ * Notified when a frame changed the value of a {@link CanListener}
+ */
+@FunctionalInterface
+public interface ChangeListener {
+    /**
+     * Called on the dispatching thread, so it should return quickly
+     * @param listener The listener with a new value
+     */
+    void changed(CanListener<?> listener);
+}
@@ -4,13 +4,16 @@ import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.java.Log;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  */
@@ -55,35 +58,99 @@ public class Console extends PrintStream {
     }
 
 
+    private static final int DEFAULT_WIDTH = 100;
+    private static final int DEFAULT_HEIGHT = 40;
+
+    private static final int COLORS = Color.values().length;
+    private static final int FORMAT_MASKS = 1 << Format.values().length;
+
+    /* Escape sequences by fg, bg and bitmask of formats, created when first used */
+    private static final String[] STYLES = new String[COLORS * COLORS * FORMAT_MASKS];
+    private static final byte[][] STYLE_BYTES = new byte[STYLES.length][];
+    private static final int RESET = styleIndex(Color.Default, Color.Default, Format.Normal);
+
+    /* The longest line made of each char, shorter lines are cut from it */
+    private static final ConcurrentHashMap<Character, String> RULES = new ConcurrentHashMap<>();
+
     public static final Console out = new Console(System.out);
     public static final Console err = new Console(System.err);
 
+    /* Terminal size, resolved when first used and again after resized(). Resolved holding its own lock,
+     * so printing doesn't wait for stty */
+    private final Object sizeLock = new Object();
+    private volatile boolean sizeStale = true;
+    private volatile boolean fixedSize;
+    /* Set when stty failed, eg. without a terminal, the defaults are used from then on */
+    private volatile boolean noTerminal;
+    private volatile int width = DEFAULT_WIDTH;
+    private volatile int height = DEFAULT_HEIGHT;
+
+    /* Output collected between beginFrame and endFrame, and the stream it is written to */
+    private final ByteArrayOutputStream frame = new ByteArrayOutputStream(8192);
+    private OutputStream target;
+
     public Console(OutputStream out) {
         super(out);
     }
 
     public void print(Object obj, Format ... formats) {
-        print(begin(Color.Default, Color.Default, formats) + obj + end());
+        print(obj, Color.Default, Color.Default, formats);
     }
 
     public void print(Object obj, Color fg, Format ... formats) {
-        print(begin(fg, Color.Default, formats) + obj + end());
+        print(obj, fg, Color.Default, formats);
     }
 
     public void print(Object obj, Color fg, Color bg, Format ... formats) {
-        print(begin(fg, bg, formats) + obj + end());
+        synchronized (this) {
+            writeStyle(styleIndex(fg, bg, formats));
+            print(String.valueOf(obj));
+            writeStyle(RESET);
+        }
     }
 
     public void println(Object obj, Format ... formats) {
-        println(begin(Color.Default, Color.Default, formats) + obj + end());
+        println(obj, Color.Default, Color.Default, formats);
     }
 
     public void println(Object obj, Color fg, Format ... formats) {
-        println(begin(fg, Color.Default, formats) + obj + end());
+        println(obj, fg, Color.Default, formats);
     }
 
     public void println(Object obj, Color fg, Color bg, Format ... formats) {
-        println(begin(fg, bg, formats) + obj + end());
+        synchronized (this) {
+            print(obj, fg, bg, formats);
+            println();
+        }
+    }
+
+    /**
+     * Collect the output until endFrame, so a whole screen is written at once
+     */
+    public synchronized void beginFrame() {
+        if (target != null) return;
+        flush();
+        /* The static Console.out hides the stream of the PrintStream */
+        target = super.out;
+        super.out = frame;
+    }
+
+    /**
+     * Write the output collected since beginFrame in one write
+     */
+    public synchronized void endFrame() {
+        if (target == null) return;
+        flush();
+        OutputStream stream = target;
+        super.out = stream;
+        target = null;
+        try {
+            frame.writeTo(stream);
+            stream.flush();
+        } catch (IOException e) {
+            setError();
+        }
+        frame.reset();
     }
 
     public void ok() {
@@ -149,11 +216,7 @@ public class Console extends PrintStream {
         int startWidth = (width/2)-3 - (title.length() / 2);
         int endWidth = startWidth + (title.length() % 2 == width % 2 ? 0 : 1);
 
-        printLine(startWidth, c, false);
-        print(extra);
-        printLine(title.length()+2, c, false);
-        print(extra);
-        printLine(endWidth, c, true);
+        println(formatLine(startWidth, c) + extra + formatLine(title.length()+2, c) + extra + formatLine(endWidth, c));
     }
 
     public void printLine() {
@@ -170,12 +233,27 @@ public class Console extends PrintStream {
 
     public void printLine(int width, char c, boolean newLine) {
         if(newLine) {
-            println(new String(new char[width]).replace("\0", Character.toString(c)));
+            println(formatLine(width, c));
         } else {
-            print(new String(new char[width]).replace("\0", Character.toString(c)));
+            print(formatLine(width, c));
         }
     }
 
+    /**
+     * A line of width times c
+     */
+    public String formatLine(int width, char c) {
+        width = Math.max(width, 0);
+        String rule = RULES.get(c);
+        if (rule == null || rule.length() < width) {
+            char[] line = new char[Math.max(width, 256)];
+            Arrays.fill(line, c);
+            rule = new String(line);
+            RULES.put(c, rule);
+        }
+        return rule.substring(0, width);
+    }
+
     public void printTitle(String title) {
         printTitle(title, getWidth());
     }
@@ -185,28 +263,65 @@ public class Console extends PrintStream {
     }
 
     public void printTitle(String title, int width, char spaceChar, char startChar, char endChar) {
+        println(formatTitle(title, width, spaceChar, startChar, endChar));
+    }
+
+    public String formatTitle(String title, int width) {
+        return formatTitle(title, width, '\u2500', '\u2524', '\u251C');
+    }
+
+    /**
+     * The title centered in a line of the given width, without a line break
+     */
+    public String formatTitle(String title, int width, char spaceChar, char startChar, char endChar) {
         width = Math.max(width, title.length() + 10);
         int startWidth = (width/2)-2 - (title.length() / 2);
         int endWidth = startWidth + (title.length() % 2 == width % 2 ? 0 : 1);
 
-        printLine(startWidth, spaceChar, false);
-        print(startChar);
-        print(" ");
-        print(title, Color.Cyan);
-        print(" ");
-        print(endChar);
-        printLine(endWidth, spaceChar, true);
+        return formatLine(startWidth, spaceChar) + startChar + " " + style(title, Color.Cyan, Color.Default) + " " +
+                endChar + formatLine(endWidth, spaceChar);
+    }
+
+    /**
+     * The object wrapped in the escape codes of the style, for building lines before printing them
+     */
+    public String style(Object obj, Color fg, Color bg, Format ... formats) {
+        return style(styleIndex(fg, bg, formats)) + obj + style(RESET);
+    }
+
+    private static int styleIndex(Color fg, Color bg, Format ... formats) {
+        int mask = 0;
+        for (Format format : formats) {
+            mask |= 1 << format.ordinal();
+        }
+        return (fg.ordinal() * COLORS + bg.ordinal()) * FORMAT_MASKS + mask;
     }
 
-    private String begin(Color fg, Color bg, Format ... formats) {
-        Stream<Integer> stream = Arrays.stream(formats).map(Format::getCode);
-        stream = Stream.concat(stream, Stream.of(fg.getCode() + 30));
-        stream = Stream.concat(stream, Stream.of(bg.getCode() + 40));
-        return stream.map(i -> Integer.toString(i)).collect(Collectors.joining(";", "\u001B[", "m"));
+    private static String style(int index) {
+        String style = STYLES[index];
+        if (style == null) {
+            StringBuilder sb = new StringBuilder("\u001B[");
+            int mask = index % FORMAT_MASKS;
+            for (Format format : Format.values()) {
+                if ((mask & 1 << format.ordinal()) != 0) sb.append(format.getCode()).append(';');
+            }
+            Color[] colors = Color.values();
+            sb.append(colors[index / FORMAT_MASKS / COLORS].getCode() + 30).append(';');
+            sb.append(colors[index / FORMAT_MASKS % COLORS].getCode() + 40).append('m');
+            /* Racing threads create equal strings, so no locking is needed */
+            style = sb.toString();
+            STYLES[index] = style;
+        }
+        return style;
     }
 
-    private String end() {
-        return begin(Color.Default, Color.Default, Format.Normal);
+    private void writeStyle(int index) {
+        byte[] bytes = STYLE_BYTES[index];
+        if (bytes == null) {
+            bytes = style(index).getBytes(StandardCharsets.US_ASCII);
+            STYLE_BYTES[index] = bytes;
+        }
+        write(bytes, 0, bytes.length);
     }
 
     public void printCaller() {
@@ -239,13 +354,62 @@ public class Console extends PrintStream {
         flush();
     }
 
+    /**
+     * Terminal width in columns. The size is looked up once and again after {@link #resized()}
+     */
     public int getWidth() {
-        try {
-            Executer.Result result = Executer.cmd("tput", "cols").run();
-            if (result.returnCode == 0) {
-                return Integer.parseInt(result.stdOut.trim());
+        if (sizeStale) resolveSize();
+        return width;
+    }
+
+    /**
+     * Terminal height in rows
+     */
+    public int getHeight() {
+        if (sizeStale) resolveSize();
+        return height;
+    }
+
+    /**
+     * Use a fixed size instead of asking the terminal, eg. when the output is not a terminal
+     */
+    public Console setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        fixedSize = true;
+        sizeStale = false;
+        return this;
+    }
+
+    /**
+     * Look up the size again on the next use, when the terminal has been resized. Ignored with a fixed size
+     * or without a terminal
+     */
+    public void resized() {
+        if (!fixedSize && !noTerminal) sizeStale = true;
+    }
+
+    private void resolveSize() {
+        synchronized (sizeLock) {
+            if (!sizeStale) return;
+            int w = -1;
+            int h = -1;
+            try {
+                /* Rows and columns in one fork, the terminal is read directly as our streams may be redirected */
+                Executer.Result result = Executer.sh("stty size < /dev/tty").timeout(1, TimeUnit.SECONDS).run();
+                if (result.returnCode == 0) {
+                    String[] size = result.stdOut.trim().split("\\s+");
+                    h = Integer.parseInt(size[0]);
+                    w = Integer.parseInt(size[1]);
+                }
+            } catch (Exception e) {}
+            if (w > 0 && h > 0) {
+                width = w;
+                height = h;
+            } else {
+                noTerminal = true;
             }
-        } catch (Exception e) {}
-        return 100;
+            sizeStale = false;
+        }
     }
-}
\ No newline at end of file
+}
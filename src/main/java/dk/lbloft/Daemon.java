@@ -1,13 +1,53 @@
 package dk.lbloft;
 
+import lombok.extern.java.Log;
 import picocli.CommandLine;
 
+import java.util.Date;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
-@CommandLine.Command(name = "daemon")
+/**
+ * Log trips without the console, as run on the car.
+ *
+ * Frames go from each bus through a bounded {@link FramePipeline} to its dispatcher, and the buses are
+ * reconnected by a {@link BusSupervisor} when they stop delivering frames. On shutdown the buses are
+ * stopped first and the queued frames, pending exports and the recording are written before exiting.
+ */
+@Log
+@CommandLine.Command(name = "daemon", description = "Log trips without the console, reconnecting when the connection is lost")
 public class Daemon implements Callable<Integer> {
+    @CommandLine.ParentCommand
+    private Main main;
+
+    @CommandLine.Option(names = {"--queue-size"}, description = "Frames queued between the bus and the decoders", defaultValue = "65536")
+    private int queueSize;
+
+    @CommandLine.Option(names = {"--overflow"}, description = "What to do when the queue is full: ${COMPLETION-CANDIDATES}", defaultValue = "DROP")
+    private FramePipeline.OverflowPolicy overflow;
+
+    @CommandLine.Option(names = {"--stale-timeout"}, description = "Seconds without frames before reconnecting", defaultValue = "10")
+    private long staleTimeout;
+
+    @CommandLine.Option(names = {"--max-backoff"}, description = "Max seconds between reconnects", defaultValue = "60")
+    private long maxBackoff;
+
+    @CommandLine.Option(names = {"--stats-interval"}, description = "Seconds between logging the counters", defaultValue = "60")
+    private long statsInterval;
+
     @Override
     public Integer call() throws Exception {
-        return 1;
+        main.getOutDir().mkdirs();
+        TripLogger logger = new TripLogger(main, new Date(), queueSize, overflow);
+        for (CanBus bus : logger.getBuses()) {
+            bus.getSupervisor()
+                    .staleTimeout(staleTimeout, TimeUnit.SECONDS)
+                    .backoff(500, TimeUnit.SECONDS.toMillis(maxBackoff), TimeUnit.MILLISECONDS);
+        }
+
+        log.info(String.format("Logging %s on %s:%d to %s",
+                String.join(", ", main.getBuses()), main.getHost(), main.getPort(), main.getOutDir()));
+        logger.start().runUntilStopped(statsInterval);
+        return 0;
     }
 }
@@ -0,0 +1,144 @@
+package dk.lbloft;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A signal computed from the values of other signals instead of decoded from frames.
+ *
+ * The inputs are read from the listeners that decode them, so a frame is decoded once no matter how many
+ * signals are derived from it. The {@link FrameDispatcher} recomputes the signal after a frame changed one of
+ * its inputs, and signals derived from it after that. The signal has no value until all inputs have one.
+ *
+ * A signal with a {@link RollingWindow} is recomputed on every frame of its inputs, so the window gets a value
+ * per frame like the window of a decoded signal, not only when the value changes.
+ */
+public class DerivedSignal extends DoubleCanListener {
+    static final DerivedSignal[] NONE = new DerivedSignal[0];
+
+    /**
+     * Computes the value of a signal
+     */
+    @FunctionalInterface
+    public interface Formula {
+        /**
+         * @param inputs The values of the inputs in the order they were given
+         * @return The value of the signal
+         */
+        double compute(double[] inputs);
+    }
+
+    private final CanListener<?>[] inputs;
+    private final double[] values;
+    private final Formula formula;
+
+    /* Position in the dispatcher, inputs are always before the signals derived from them */
+    int order = -1;
+    boolean dirty;
+
+    public DerivedSignal(String name, Formula formula, CanListener<?>... inputs) {
+        super(name);
+        this.formula = formula;
+        this.inputs = inputs.clone();
+        this.values = new double[inputs.length];
+    }
+
+    /**
+     * The time integral of a signal, eg. liters from liters per second
+     * @param name Name of the signal
+     * @param input The signal to integrate, in units per second
+     * @param scale Factor applied to the input
+     */
+    public static DerivedSignal integral(String name, CanListener<?> input, double scale) {
+        return new Integral(name, input, scale);
+    }
+
+    public CanListener<?>[] getInputs() {
+        return inputs.clone();
+    }
+
+    /**
+     * @return True to be recomputed on every frame of an input, even if it didn't change its value
+     */
+    boolean isSampled() {
+        return window != null;
+    }
+
+    /**
+     * Compute the value from the current values of the inputs
+     * @return True if the value changed
+     */
+    boolean recompute() {
+        if (!read()) {
+            changed = false;
+            return false;
+        }
+        set(compute(values));
+        return changed;
+    }
+
+    protected double compute(double[] inputs) {
+        return formula.compute(inputs);
+    }
+
+    private boolean read() {
+        for (int i = 0; i < inputs.length; i++) {
+            CanListener<?> input = inputs[i];
+            if (input instanceof DoubleCanListener) {
+                if (!((DoubleCanListener) input).hasValue()) return false;
+                values[i] = ((DoubleCanListener) input).getDouble();
+            } else if (input instanceof IntCanListener) {
+                if (!((IntCanListener) input).hasValue()) return false;
+                values[i] = ((IntCanListener) input).getInt();
+            } else if (input instanceof LongCanListener) {
+                if (!((LongCanListener) input).hasValue()) return false;
+                values[i] = ((LongCanListener) input).getLong();
+            } else {
+                Object value = input.getValue();
+                if (!(value instanceof Number)) return false;
+                values[i] = ((Number) value).doubleValue();
+            }
+        }
+        return true;
+    }
+
+    /* Derived signals are not decoded from frames */
+    @Override
+    void update(int id, ByteBuffer data) {
+    }
+
+    @Override
+    public double handleDouble(int id, ByteBuffer data) {
+        return getDouble();
+    }
+
+    /**
+     * Sums up the input over the time it was held, by the clock of the frames
+     */
+    private static class Integral extends DerivedSignal {
+        private final double scale;
+        private double rate;
+        private double total;
+        private long last = -1;
+
+        Integral(String name, CanListener<?> input, double scale) {
+            super(name, null, input);
+            this.scale = scale;
+        }
+
+        @Override
+        boolean isSampled() {
+            return true;
+        }
+
+        @Override
+        protected double compute(double[] inputs) {
+            long now = getClock().currentTimeMicros();
+            if (last >= 0) {
+                total += rate * ((now - last) / 1_000_000.0);
+            }
+            last = now;
+            rate = inputs[0] * scale;
+            return total;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package dk.lbloft;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The listeners of several dispatchers, eg. one per bus, seen as one.
+ *
+ * Snapshots hold the listeners of each dispatcher in turn. The values of each dispatcher are
+ * taken between two of its frames, but the buses are independent so they aren't synchronized
+ * with each other.
+ */
+public class DispatcherGroup implements SnapshotSource {
+    private final List<FrameDispatcher> dispatchers;
+    private final List<CanListener<?>> listeners = new ArrayList<>();
+    private final int[] ends;
+
+    /**
+     * @param dispatchers The dispatchers, all listeners must be added before
+     */
+    public DispatcherGroup(Collection<FrameDispatcher> dispatchers) {
+        this.dispatchers = new ArrayList<>(dispatchers);
+        this.ends = new int[this.dispatchers.size()];
+        for (int i = 0; i < ends.length; i++) {
+            listeners.addAll(this.dispatchers.get(i).getListeners());
+            ends[i] = listeners.size();
+        }
+    }
+
+    /**
+     * The listeners of all dispatchers, snapshots must be made for these
+     */
+    public List<CanListener<?>> getListeners() {
+        return Collections.unmodifiableList(listeners);
+    }
+
+    public List<FrameDispatcher> getDispatchers() {
+        return Collections.unmodifiableList(dispatchers);
+    }
+
+    public void addChangeListener(ChangeListener changeListener) {
+        for (FrameDispatcher dispatcher : dispatchers) {
+            dispatcher.addChangeListener(changeListener);
+        }
+    }
+
+    /**
+     * Frames dispatched by all dispatchers
+     */
+    public long getDispatched() {
+        long dispatched = 0;
+        for (FrameDispatcher dispatcher : dispatchers) {
+            dispatched += dispatcher.getDispatched();
+        }
+        return dispatched;
+    }
+
+    /**
+     * Fill a snapshot made for {@link #getListeners()}, versioned by the frames dispatched on all buses
+     * and timed by the bus with the latest frame
+     */
+    @Override
+    public SignalSnapshot snapshot(SignalSnapshot snapshot) {
+        long version = 0;
+        long timestamp = 0;
+        int from = 0;
+        for (int i = 0; i < ends.length; i++) {
+            FrameDispatcher dispatcher = dispatchers.get(i);
+            version += dispatcher.capture(snapshot, from, ends[i]);
+            timestamp = Math.max(timestamp, dispatcher.getClock().currentTimeMicros());
+            from = ends[i];
+        }
+        snapshot.stamp(version, timestamp);
+        return snapshot;
+    }
+}
@@ -0,0 +1,97 @@
+package dk.lbloft;
+
+import java.nio.ByteBuffer;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+
+/**
+ * CanListener for double values, decoding and change detection are done without boxing
+ */
+public abstract class DoubleCanListener extends CanListener<Double> {
+    private DoubleUnaryOperator doubleMapping = DoubleUnaryOperator.identity();
+
+    private double doubleValue;
+
+    private boolean hasValue;
+
+    public DoubleCanListener(String name, Integer ... ids) {
+        super(name, ids);
+    }
+
+    public DoubleCanListener setDoubleMapping(DoubleUnaryOperator mapping) {
+        this.doubleMapping = mapping;
+        return this;
+    }
+
+    @Override
+    public DoubleCanListener setMapping(Function<Double, Double> mapping) {
+        return setDoubleMapping(d -> mapping.apply(d));
+    }
+
+    /**
+     * Process can data to extract a value
+     * @param id Can id
+     * @param data Can data (up to 8 bytes)
+     * @return The calculated value
+     */
+    public abstract double handleDouble(int id, ByteBuffer data);
+
+    @Override
+    public final Double handle(int id, ByteBuffer data) {
+        return handleDouble(id, data);
+    }
+
+    @Override
+    void update(int id, ByteBuffer data) {
+        set(handleDouble(id, data));
+    }
+
+    /**
+     * Map a value and update the value
+     * @param value The value before the mapping
+     */
+    void set(double value) {
+        double newValue = doubleMapping.applyAsDouble(value);
+        changed = !hasValue || Double.doubleToLongBits(doubleValue) != Double.doubleToLongBits(newValue);
+        doubleValue = newValue;
+        hasValue = true;
+        if (window != null) window.add(getClock().currentTimeMicros(), newValue);
+        if(changed) onChange(newValue);
+    }
+
+    @Override
+    void snapshot(SignalSnapshot snapshot, int index) {
+        if (hasValue) {
+            snapshot.setDouble(index, doubleValue);
+        } else {
+            snapshot.setNone(index);
+        }
+    }
+
+    /**
+     * Tricker when the value is changed, after the new value is stored, so {@link #getDouble()} returns it
+     * @param value The new value
+     */
+    protected void onChange(double value) {}
+
+    /**
+     * Changes are reported to {@link #onChange(double)} without boxing, override that instead
+     */
+    @Override
+    protected final void onChange(Double value) {
+        onChange(value.doubleValue());
+    }
+
+    public boolean hasValue() {
+        return hasValue;
+    }
+
+    public double getDouble() {
+        return doubleValue;
+    }
+
+    @Override
+    public Double getValue() {
+        return hasValue ? doubleValue : null;
+    }
+}
@@ -12,8 +12,15 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
@@ -26,6 +33,24 @@ public class Executer {
     private File workingDir = null;
     private ResultHandler resultHandler = new DefaultResultHandler();
     private Level logLevel = Level.FINER;
+    private Consumer<String> stdOutConsumer;
+    private Consumer<String> stdErrConsumer;
+    private long timeoutNanos;
+
+    /* Collected output is cut at this many chars, use the consumers for more */
+    private static final int MAX_OUTPUT = 1 << 20;
+
+    /* Drains the output of all processes, threads are reused between commands */
+    private static final ExecutorService IO_POOL = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "executer-io-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     private Executer(String... cmd) {
         this.cmd = cmd;
@@ -90,81 +115,161 @@ public class Executer {
         return this;
     }
 
+    /**
+     * Stream the lines of stdout to the consumer instead of collecting them in the result
+     */
+    public Executer onStdOut(Consumer<String> consumer) {
+        this.stdOutConsumer = consumer;
+        return this;
+    }
+
+    /**
+     * Stream the lines of stderr to the consumer instead of collecting them in the result
+     */
+    public Executer onStdErr(Consumer<String> consumer) {
+        this.stdErrConsumer = consumer;
+        return this;
+    }
+
+    /**
+     * Kill the process if it has not completed in time, 0 waits forever
+     */
+    public Executer timeout(long timeout, TimeUnit unit) {
+        this.timeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
     public Future<Result> run(ExecutorService executor) {
         return executor.submit((Callable)this::run);
     }
 
+    /**
+     * Run the command and wait for it. Failures, including timeouts, are logged and give return code -1
+     */
     @SneakyThrows
     public Result run() {
-        StreamGobbler errorGobbler = null;
-        StreamGobbler outputGobbler = null;
-        Process p = null;
-        int returncode = -1;
         try {
-            log.fine("Executing " + Arrays.stream(cmd).collect(Collectors.joining(" ")));
-            log.fine(" - Environment" + Arrays.stream(getEnv()).collect(Collectors.joining(" ")));
-            log.fine(" - WorkingDir" + workingDir);
-
-            p = Runtime.getRuntime().exec(cmd, getEnv(), workingDir);
-            errorGobbler = new StreamGobbler(p.getErrorStream(), StreamGobbler.Type.ERROR, logLevel);
-            outputGobbler = new StreamGobbler(p.getInputStream(), StreamGobbler.Type.OUTPUT, logLevel);
-
-            errorGobbler.start();
-            outputGobbler.start();
-
-            errorGobbler.join();
-            outputGobbler.join();
-
-            returncode = p.waitFor();
-            p.destroy();
-            log.fine(" + returnCode: " + returncode);
-        } catch (Exception ignore) {
-            log.log(Level.FINE, "Ignore exception: " + ignore.getMessage(), ignore);
-        } finally {
-            if(p != null) {
-                p.destroy();
-            }
+            return start().waitFor();
+        } catch (Exception e) {
+            log.log(Level.FINE, "Ignore exception: " + e.getMessage(), e);
+            return resultHandler.create(-1, "", "");
         }
-        return resultHandler.create(returncode, outputGobbler.toString(), errorGobbler.toString());
     }
 
-    protected static class StreamGobbler extends Thread {
-        enum Type {ERROR, OUTPUT};
+    /**
+     * Start the command without waiting for it. The output is drained by the shared I/O threads
+     * @return The running process
+     * @throws IOException If the process could not be started
+     */
+    public Execution start() throws IOException {
+        log.fine("Executing " + Arrays.stream(cmd).collect(Collectors.joining(" ")));
+        log.fine(" - Environment" + Arrays.stream(getEnv()).collect(Collectors.joining(" ")));
+        log.fine(" - WorkingDir" + workingDir);
+
+        ProcessBuilder builder = new ProcessBuilder(cmd).directory(workingDir);
+        builder.environment().clear();
+        builder.environment().putAll(env);
+        Process process = builder.start();
+        /* Nothing is written to the process */
+        process.getOutputStream().close();
+
+        long deadline = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : 0;
+        return new Execution(process, deadline,
+                IO_POOL.submit(new Drain(process.getInputStream(), "OUTPUT", stdOutConsumer)),
+                IO_POOL.submit(new Drain(process.getErrorStream(), "ERROR", stdErrConsumer)));
+    }
+
+    /**
+     * A started command
+     */
+    public class Execution {
+        private final Process process;
+        private final long deadline;
+        private final Future<String> stdOut;
+        private final Future<String> stdErr;
+
+        private Execution(Process process, long deadline, Future<String> stdOut, Future<String> stdErr) {
+            this.process = process;
+            this.deadline = deadline;
+            this.stdOut = stdOut;
+            this.stdErr = stdErr;
+        }
+
+        public boolean isAlive() {
+            return process.isAlive();
+        }
+
+        /**
+         * Kill the process, waitFor returns when its output is drained
+         */
+        public void cancel() {
+            process.destroyForcibly();
+        }
+
+        /**
+         * Wait for the process to complete and its output to be drained
+         * @throws TimeoutException If the timeout passed, the process is killed
+         */
+        @SneakyThrows(ExecutionException.class)
+        public Result waitFor() throws InterruptedException, TimeoutException {
+            if (deadline == 0) {
+                process.waitFor();
+                int returnCode = process.exitValue();
+                log.fine(" + returnCode: " + returnCode);
+                return create(returnCode, stdOut.get(), stdErr.get());
+            }
+            if (!process.waitFor(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                cancel();
+                throw new TimeoutException("Timeout executing " + String.join(" ", cmd));
+            }
+            int returnCode = process.exitValue();
+            log.fine(" + returnCode: " + returnCode);
+            /* Children of the process may keep the streams open */
+            long remaining = Math.max(deadline - System.nanoTime(), 0);
+            return create(returnCode, stdOut.get(remaining, TimeUnit.NANOSECONDS), stdErr.get(remaining, TimeUnit.NANOSECONDS));
+        }
 
-        InputStream is;
-        Type type;
-        private Level logLevel;
-        StringBuilder output = new StringBuilder();
+        @SneakyThrows
+        private Result create(int returnCode, String stdOut, String stdErr) {
+            return resultHandler.create(returnCode, stdOut, stdErr);
+        }
+    }
 
-        public StreamGobbler(InputStream is, Type type, Level logLevel) {
+    /**
+     * Read the lines of a stream, logging them and handing them to the consumer or collecting them
+     */
+    private class Drain implements Callable<String> {
+        private final InputStream is;
+        private final String type;
+        private final Consumer<String> consumer;
+
+        Drain(InputStream is, String type, Consumer<String> consumer) {
             this.is = is;
             this.type = type;
-            this.logLevel = logLevel;
+            this.consumer = consumer;
         }
 
-        public void run() {
-            synchronized( output ) {
-                try(BufferedReader br = new BufferedReader(new InputStreamReader(is))) {
-                    String line = null;
-                    while ((line = br.readLine()) != null) {
-                        if (logLevel == null) {
-                            System.out.println(type.name() + ">" + line);
-                        } else {
-                            log.log(logLevel, type.name() + ">" + line);
-                        }
+        @Override
+        public String call() {
+            StringBuilder output = new StringBuilder();
+            try(BufferedReader br = new BufferedReader(new InputStreamReader(is))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (logLevel == null) {
+                        System.out.println(type + ">" + line);
+                    } else {
+                        log.log(logLevel, type + ">" + line);
+                    }
+                    if (consumer != null) {
+                        consumer.accept(line);
+                    } else if (output.length() < MAX_OUTPUT) {
                         output.append(line).append("\n");
                     }
-                } catch (IOException ioe) {
-                    log.warning("Ignore exception: " + ioe.getMessage());
                 }
+            } catch (IOException ioe) {
+                log.warning("Ignore exception: " + ioe.getMessage());
             }
-        }
-
-        @Override
-        public String toString() {
-            synchronized( output ) {
-                return output.toString();
-            }
+            return output.toString();
         }
     }
 
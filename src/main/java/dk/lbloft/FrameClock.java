@@ -0,0 +1,23 @@
+package dk.lbloft;
+
+/**
+ * Clock following the timestamp of the latest dispatched frame.
+ * Until a frame with a timestamp has been seen the system time is used.
+ */
+public class FrameClock implements CanClock {
+    private volatile long micros = -1;
+
+    /**
+     * Move the clock to the timestamp of a frame
+     * @param micros Frame timestamp in micros
+     */
+    public void set(long micros) {
+        this.micros = micros;
+    }
+
+    @Override
+    public long currentTimeMicros() {
+        long current = micros;
+        return current < 0 ? SYSTEM.currentTimeMicros() : current;
+    }
+}
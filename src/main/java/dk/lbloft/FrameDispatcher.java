@@ -0,0 +1,504 @@
+package dk.lbloft;
+
+import com.github.kayak.core.Bus;
+import com.github.kayak.core.Frame;
+import com.github.kayak.core.FrameListener;
+import com.github.kayak.core.Subscription;
+import dk.lbloft.metrics.Latencies;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.StampedLock;
+import java.util.logging.Level;
+
+/**
+ * Fan out frames to the {@link CanListener}s registered for their id.
+ * Every id is subscribed once, no matter how many listeners are interested in it,
+ * and the listeners for a standard 11 bit id are found by indexing a flat table.
+ * Extended 29 bit ids fall back to a map.
+ *
+ * The listeners get the {@link FrameClock} of the dispatcher, which is moved to the timestamp
+ * of each frame before it is delivered.
+ *
+ * A frame repeating the previous payload of its id would decode to the same values, so it is counted but
+ * not delivered, unless a listener of the id must see every frame. The last payload of a standard id is kept
+ * packed in a long, payloads longer than 8 bytes are always delivered.
+ *
+ * {@link DerivedSignal}s are recomputed after the listeners of a frame, only if one of their inputs
+ * changed, in the order they were added, so a signal derived from other derived signals sees their new values.
+ *
+ * A listener failing on a frame is counted in {@link #getErrors()} and the frame is still delivered to the
+ * other listeners, so a single bad signal definition doesn't stop the decoding.
+ *
+ * Frames are delivered holding the write lock of a StampedLock. Readers use optimistic reads
+ * and retry if a frame was delivered meanwhile, so they never block the dispatching thread
+ * and always see the values of all listeners between two frames.
+ */
+@Log
+public class FrameDispatcher implements FrameListener, SnapshotSource {
+    public static final int STANDARD_IDS = 0x800;
+
+    public static final int MAX_PAYLOAD = 64;
+
+    private static final CanListener<?>[] NONE = new CanListener<?>[0];
+    private static final ChangeListener[] NO_CHANGE_LISTENERS = new ChangeListener[0];
+
+    /* Lengths marking ids without a payload yet, and ids delivering every frame */
+    private static final byte NO_PAYLOAD = -1;
+    private static final byte EVERY_FRAME = -2;
+
+    /* Reused for every frame, listeners get a read-only view so they can't modify it */
+    private final byte[] payloadBytes = new byte[MAX_PAYLOAD];
+    private final ByteBuffer payload = ByteBuffer.wrap(payloadBytes).asReadOnlyBuffer();
+
+    private final CanListener<?>[][] standard = new CanListener<?>[STANDARD_IDS][];
+    /* Extended ids by the index in the table */
+    private final IdTable extendedIds = new IdTable();
+    private CanListener<?>[][] extended = new CanListener<?>[0][];
+
+    /* Last payload of every id packed in a long and its length */
+    private final long[] payloads = new long[STANDARD_IDS];
+    private final byte[] lengths = new byte[STANDARD_IDS];
+    private long[] extendedPayloads = new long[0];
+    private byte[] extendedLengths = new byte[0];
+
+    private boolean deduplicate = true;
+
+    private final List<CanListener<?>> listeners = new ArrayList<>();
+
+    private ChangeListener[] changeListeners = NO_CHANGE_LISTENERS;
+
+    private DerivedSignal[] derived = DerivedSignal.NONE;
+
+    /* Derived signals waiting to be recomputed, and the first of them */
+    private int dirty;
+    private int firstDirty = Integer.MAX_VALUE;
+
+    private BusStatistics statistics;
+
+    private Latencies latencies;
+
+    @Getter
+    private final FrameClock clock = new FrameClock();
+
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * Number of frames dispatched
+     */
+    @Getter
+    private volatile long dispatched;
+
+    /**
+     * Number of times a listener failed to handle a frame
+     */
+    @Getter
+    private volatile long errors;
+
+    /**
+     * Number of frames not delivered because they repeated the previous payload of the id
+     */
+    @Getter
+    private volatile long repeated;
+
+    public FrameDispatcher() {
+        Arrays.fill(lengths, NO_PAYLOAD);
+    }
+
+    /**
+     * Register a listener for all of its ids
+     * Listeners without ids only get the clock of the dispatcher
+     * @param listener The listener to register
+     * @return The listener
+     * @throws IllegalArgumentException If it is a derived signal and its inputs are not registered
+     */
+    public <T extends CanListener<?>> T add(T listener) {
+        if (listener instanceof DerivedSignal) {
+            derive((DerivedSignal) listener);
+        }
+        listener.setClock(clock);
+        listeners.add(listener);
+        for (Integer id : listener.getIds()) {
+            boolean isExtended = listener.isExtended(id);
+            CanListener<?>[] current = get(id, isExtended);
+            CanListener<?>[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = listener;
+            if (!isExtended) {
+                standard[id] = updated;
+            } else {
+                int index = extendedIds.add(id);
+                if (index == extended.length) {
+                    extended = Arrays.copyOf(extended, index + 1);
+                    extendedPayloads = Arrays.copyOf(extendedPayloads, index + 1);
+                    extendedLengths = Arrays.copyOf(extendedLengths, index + 1);
+                }
+                extended[index] = updated;
+            }
+            resetPayload(id, isExtended);
+        }
+        return listener;
+    }
+
+    /**
+     * Deliver frames repeating the previous payload of the id anyway, must be set before dispatching
+     */
+    public void setDeduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+    }
+
+    /**
+     * Forget the last payload of an id, and find out if its listeners must see every frame
+     */
+    private void resetPayload(int id, boolean extended) {
+        byte length = NO_PAYLOAD;
+        for (CanListener<?> listener : get(id, extended)) {
+            if (!listener.skipsRepeatedFrames()) length = EVERY_FRAME;
+            for (DerivedSignal signal : listener.dependents) {
+                if (signal.isSampled()) length = EVERY_FRAME;
+            }
+        }
+        if (!extended) {
+            lengths[id] = length;
+        } else {
+            extendedLengths[extendedIds.get(id)] = length;
+        }
+    }
+
+    private void derive(DerivedSignal signal) {
+        for (CanListener<?> input : signal.getInputs()) {
+            if (!listeners.contains(input)) {
+                throw new IllegalArgumentException("The input " + input.getName() + " of " + signal.getName() + " must be added before it");
+            }
+        }
+        for (CanListener<?> input : signal.getInputs()) {
+            input.dependents = Arrays.copyOf(input.dependents, input.dependents.length + 1);
+            input.dependents[input.dependents.length - 1] = signal;
+            for (Integer id : input.getIds()) {
+                resetPayload(id, input.isExtended(id));
+            }
+        }
+        signal.order = derived.length;
+        derived = Arrays.copyOf(derived, derived.length + 1);
+        derived[signal.order] = signal;
+    }
+
+    /**
+     * Record statistics of every dispatched frame, must be set before dispatching
+     */
+    public void setStatistics(BusStatistics statistics) {
+        this.statistics = statistics;
+        statistics.setLock(lock);
+    }
+
+    /**
+     * Record the time the listeners take to decode every frame, must be set before dispatching
+     */
+    public void setLatencies(Latencies latencies) {
+        this.latencies = latencies;
+    }
+
+    /**
+     * The registered listeners in the order they were added
+     */
+    public List<CanListener<?>> getListeners() {
+        return Collections.unmodifiableList(listeners);
+    }
+
+    /**
+     * Get notified when a dispatched frame changes the value of a listener
+     * @param changeListener The listener to notify
+     */
+    public void addChangeListener(ChangeListener changeListener) {
+        changeListeners = Arrays.copyOf(changeListeners, changeListeners.length + 1);
+        changeListeners[changeListeners.length - 1] = changeListener;
+    }
+
+    /**
+     * All ids with at least one registered listener, an extended id below 0x800 is only listed once with the standard id
+     */
+    public Set<Integer> getIds() {
+        Set<Integer> ids = new TreeSet<>();
+        for (int index = 0; index < extendedIds.size(); index++) {
+            ids.add(extendedIds.id(index));
+        }
+        for (int id = 0; id < STANDARD_IDS; id++) {
+            if (standard[id] != null) ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * Subscribe to every registered id on the bus, using a single subscription
+     * @param bus The bus to subscribe on
+     * @return The subscription
+     */
+    public Subscription subscribe(Bus bus) {
+        return subscribe(bus, this);
+    }
+
+    /**
+     * Subscribe to every registered id on the bus, delivering the frames to another listener, eg. a queue in front of the dispatcher
+     * @param bus The bus to subscribe on
+     * @param listener Receiver of the frames
+     * @return The subscription
+     */
+    public Subscription subscribe(Bus bus, FrameListener listener) {
+        Subscription subscription = new Subscription(listener, bus);
+        for (int id = 0; id < STANDARD_IDS; id++) {
+            if (standard[id] != null) subscription.subscribe(id, false);
+        }
+        for (int index = 0; index < extendedIds.size(); index++) {
+            subscription.subscribe(extendedIds.id(index), true);
+        }
+        return subscription;
+    }
+
+    @Override
+    public void newFrame(Frame frame) {
+        byte[] data = frame.getData();
+        dispatch(frame.getTimestamp(), frame.getIdentifier(), frame.isExtended(), data, 0, data.length);
+    }
+
+    /**
+     * Deliver a frame to the listeners registered for the id
+     * @param id Can id
+     * @param data Can data, the remaining bytes are used
+     */
+    public void dispatch(int id, ByteBuffer data) {
+        dispatch(0, id, data);
+    }
+
+    /**
+     * Deliver a frame to the listeners registered for the id
+     * @param timestamp Frame timestamp in micros, 0 if unknown
+     * @param id Can id
+     * @param data Can data, the remaining bytes are used
+     */
+    public void dispatch(long timestamp, int id, ByteBuffer data) {
+        if (timestamp > 0) clock.set(timestamp);
+        int length = Math.min(data.remaining(), MAX_PAYLOAD);
+        for (int i = 0; i < length; i++) {
+            payloadBytes[i] = data.get(data.position() + i);
+        }
+        deliver(id, !isStandard(id), length);
+    }
+
+    /**
+     * Deliver a frame to the listeners registered for the id without allocating
+     * @param timestamp Frame timestamp in micros, 0 if unknown
+     * @param id Can id
+     * @param data Can data
+     * @param length Number of bytes in data
+     */
+    public void dispatch(long timestamp, int id, byte[] data, int length) {
+        dispatch(timestamp, id, data, 0, length);
+    }
+
+    /**
+     * Deliver a frame held at an offset in an array, eg. in a {@link FrameRing}
+     * @param timestamp Frame timestamp in micros, 0 if unknown
+     * @param id Can id
+     * @param data Array holding the can data
+     * @param offset Offset of the can data in the array
+     * @param length Number of bytes of can data
+     */
+    public void dispatch(long timestamp, int id, byte[] data, int offset, int length) {
+        dispatch(timestamp, id, !isStandard(id), data, offset, length);
+    }
+
+    /**
+     * Deliver a frame held at an offset in an array, an extended frame only goes to the listeners of extended ids,
+     * even if the id is below 0x800
+     * @param timestamp Frame timestamp in micros, 0 if unknown
+     * @param id Can id
+     * @param extended True for 29 bit ids
+     * @param data Array holding the can data
+     * @param offset Offset of the can data in the array
+     * @param length Number of bytes of can data
+     */
+    public void dispatch(long timestamp, int id, boolean extended, byte[] data, int offset, int length) {
+        if (timestamp > 0) clock.set(timestamp);
+        length = Math.min(length, MAX_PAYLOAD);
+        System.arraycopy(data, offset, payloadBytes, 0, length);
+        deliver(id, extended || !isStandard(id), length);
+    }
+
+    private void deliver(int id, boolean extended, int length) {
+        CanListener<?>[] listeners = get(id, extended);
+        long stamp = lock.writeLock();
+        try {
+            if (statistics != null) statistics.record(clock.currentTimeMicros(), id, extended, length);
+            if (listeners.length > 0 && deduplicate && isRepeated(id, extended, length)) {
+                repeated++;
+            } else if (latencies != null && listeners.length > 0) {
+                long start = System.nanoTime();
+                deliver(listeners, id, length);
+                latencies.record(Latencies.Stage.DECODE, System.nanoTime() - start);
+            } else {
+                deliver(listeners, id, length);
+            }
+            dispatched++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void deliver(CanListener<?>[] listeners, int id, int length) {
+        for (int i = 0; i < listeners.length; i++) {
+            /* Every listener starts reading from the beginning of the frame */
+            payload.clear();
+            payload.limit(length);
+            try {
+                listeners[i].update(id, payload);
+            } catch (RuntimeException e) {
+                failed(listeners[i], id, e);
+                continue;
+            }
+            if (listeners[i].changed) {
+                changed(listeners[i]);
+            }
+            if (listeners[i].dependents.length > 0) {
+                invalidate(listeners[i]);
+            }
+        }
+        if (dirty > 0) {
+            recompute();
+        }
+    }
+
+    /**
+     * Check if a payload is the same as the previous payload of the id, and keep it for the next frame
+     */
+    private boolean isRepeated(int id, boolean extended, int length) {
+        if (length > 8) return false;
+        long payload = 0;
+        for (int i = 0; i < length; i++) {
+            payload = payload << 8 | (payloadBytes[i] & 0xFF);
+        }
+        if (!extended) {
+            if (lengths[id] == EVERY_FRAME) return false;
+            boolean repeated = lengths[id] == length && payloads[id] == payload;
+            payloads[id] = payload;
+            lengths[id] = (byte) length;
+            return repeated;
+        }
+        /* Only called with listeners, so the id is in the table */
+        int index = extendedIds.get(id);
+        if (extendedLengths[index] == EVERY_FRAME) return false;
+        boolean repeated = extendedLengths[index] == length && extendedPayloads[index] == payload;
+        extendedPayloads[index] = payload;
+        extendedLengths[index] = (byte) length;
+        return repeated;
+    }
+
+    private void changed(CanListener<?> listener) {
+        for (ChangeListener changeListener : changeListeners) {
+            try {
+                changeListener.changed(listener);
+            } catch (RuntimeException e) {
+                failed(listener, -1, e);
+            }
+        }
+    }
+
+    /**
+     * Count a failure, the first and then every power of two are logged, so a listener failing on every frame
+     * doesn't flood the log
+     */
+    private void failed(CanListener<?> listener, int id, RuntimeException e) {
+        long count = ++errors;
+        if (Long.bitCount(count) == 1) {
+            log.log(Level.WARNING, String.format("%s failed on %s, %d errors so far", listener.getName(),
+                    id < 0 ? "a change" : String.format("id 0x%X", id), count), e);
+        }
+    }
+
+    private void invalidate(CanListener<?> input) {
+        for (DerivedSignal signal : input.dependents) {
+            if (!signal.dirty && (input.changed || signal.isSampled())) {
+                signal.dirty = true;
+                dirty++;
+                firstDirty = Math.min(firstDirty, signal.order);
+            }
+        }
+    }
+
+    private void recompute() {
+        /* Signals only depend on signals before them, so a single pass sees every change */
+        for (int i = firstDirty; dirty > 0; i++) {
+            DerivedSignal signal = derived[i];
+            if (!signal.dirty) continue;
+            signal.dirty = false;
+            dirty--;
+            boolean changed;
+            try {
+                changed = signal.recompute();
+            } catch (RuntimeException e) {
+                failed(signal, -1, e);
+                continue;
+            }
+            if (changed) {
+                changed(signal);
+                if (signal.dependents.length > 0) {
+                    invalidate(signal);
+                }
+            }
+        }
+        firstDirty = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Fill a snapshot with the values of its listeners between two frames, without blocking the dispatching thread
+     * @param snapshot The snapshot to fill
+     * @return The snapshot
+     */
+    @Override
+    public SignalSnapshot snapshot(SignalSnapshot snapshot) {
+        long version = capture(snapshot, 0, snapshot.size());
+        snapshot.stamp(version, clock.currentTimeMicros());
+        return snapshot;
+    }
+
+    /**
+     * Fill part of a snapshot between two frames, the listeners in the range must be registered here
+     * @param snapshot The snapshot to fill
+     * @param from Index of the first listener
+     * @param to Index after the last listener
+     * @return The number of frames dispatched when the values were copied
+     */
+    public long capture(SignalSnapshot snapshot, int from, int to) {
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                long version = dispatched;
+                snapshot.capture(from, to);
+                if (lock.validate(stamp)) {
+                    return version;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    private CanListener<?>[] get(int id, boolean extended) {
+        CanListener<?>[] listeners;
+        if (!extended && isStandard(id)) {
+            listeners = standard[id];
+        } else {
+            int index = extendedIds.get(id);
+            listeners = index < 0 ? null : this.extended[index];
+        }
+        return listeners == null ? NONE : listeners;
+    }
+
+    private static boolean isStandard(int id) {
+        return id >= 0 && id < STANDARD_IDS;
+    }
+}
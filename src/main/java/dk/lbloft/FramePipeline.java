@@ -0,0 +1,191 @@
+package dk.lbloft;
+
+import com.github.kayak.core.Frame;
+import com.github.kayak.core.FrameListener;
+import dk.lbloft.metrics.Latencies;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * Bounded queue between the bus and a {@link FrameDispatcher}.
+ *
+ * Frames from the bus thread are put on a {@link FrameRing} and dispatched by the pipeline thread,
+ * so decoding and the change listeners never hold up the bus. What happens when the queue is full
+ * is decided by the {@link OverflowPolicy}, and both outcomes are counted.
+ */
+@Log
+public class FramePipeline implements FrameListener, Closeable {
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    public enum OverflowPolicy {
+        /**
+         * Drop frames arriving while the queue is full, the bus thread never waits
+         */
+        DROP,
+        /**
+         * Make the bus thread wait for room in the queue, socketcand buffers meanwhile
+         */
+        BLOCK
+    }
+
+    private static final int BATCH = 1024;
+    private static final long IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final FrameDispatcher dispatcher;
+    private final FrameRing ring;
+    private final OverflowPolicy policy;
+    private final Thread thread;
+    private final FrameRing.Consumer consumer;
+    private final Latencies latencies;
+
+    private volatile boolean running = true;
+
+    /**
+     * Frames received from the bus, including dropped frames
+     */
+    @Getter
+    private volatile long received;
+
+    /**
+     * Frames the dispatcher failed on, the failures of single listeners are counted by the dispatcher
+     */
+    @Getter
+    private volatile long errors;
+
+    /**
+     * Number of times the bus thread waited for room in the queue
+     */
+    @Getter
+    private volatile long blocked;
+
+    public FramePipeline(FrameDispatcher dispatcher) {
+        this(dispatcher, DEFAULT_CAPACITY, OverflowPolicy.DROP);
+    }
+
+    public FramePipeline(FrameDispatcher dispatcher, int capacity, OverflowPolicy policy) {
+        this(dispatcher, capacity, policy, "frame-pipeline");
+    }
+
+    /**
+     * @param threadName Name of the dispatching thread
+     */
+    public FramePipeline(FrameDispatcher dispatcher, int capacity, OverflowPolicy policy, String threadName) {
+        this(dispatcher, capacity, policy, threadName, null);
+    }
+
+    /**
+     * @param threadName Name of the dispatching thread
+     * @param latencies Where to record the delivery and queue latencies of the frames, may be null
+     */
+    public FramePipeline(FrameDispatcher dispatcher, int capacity, OverflowPolicy policy, String threadName, Latencies latencies) {
+        this.dispatcher = dispatcher;
+        this.ring = new FrameRing(capacity, latencies != null);
+        this.policy = policy;
+        this.latencies = latencies;
+        if (latencies == null) {
+            this.consumer = (bus, timestamp, id, extended, data, offset, length) -> dispatch(timestamp, id, extended, data, offset, length);
+        } else {
+            this.consumer = (bus, timestamp, id, extended, data, offset, length) -> {
+                latencies.record(Latencies.Stage.QUEUE, System.nanoTime() - ring.getStamp());
+                dispatch(timestamp, id, extended, data, offset, length);
+            };
+        }
+        this.thread = new Thread(this::run, threadName);
+        thread.setDaemon(true);
+    }
+
+    public FramePipeline start() {
+        thread.start();
+        return this;
+    }
+
+    @Override
+    public void newFrame(Frame frame) {
+        byte[] data = frame.getData();
+        offer(frame.getTimestamp(), frame.getIdentifier(), frame.isExtended(), data, data.length);
+    }
+
+    /**
+     * Queue a frame, called by a single producer thread
+     * @return False if the frame was dropped
+     */
+    public boolean offer(long timestamp, int id, boolean extended, byte[] data, int length) {
+        received++;
+        if (latencies != null && timestamp > 0) {
+            latencies.record(Latencies.Stage.DELIVERY, TimeUnit.MICROSECONDS.toNanos(CanClock.SYSTEM.currentTimeMicros() - timestamp));
+        }
+        if (policy == OverflowPolicy.BLOCK && ring.size() >= ring.capacity()) {
+            blocked++;
+            while (running && ring.size() >= ring.capacity()) {
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+        return ring.offer(timestamp, id, extended, data, length);
+    }
+
+    /**
+     * Frames dropped because the queue was full
+     */
+    public long getDropped() {
+        return ring.getDropped();
+    }
+
+    /**
+     * Frames waiting in the queue
+     */
+    public int size() {
+        return ring.size();
+    }
+
+    /**
+     * Dispatch a frame, a failing frame is logged and counted and the next frames are still dispatched
+     */
+    private void dispatch(long timestamp, int id, boolean extended, byte[] data, int offset, int length) {
+        try {
+            dispatcher.dispatch(timestamp, id, extended, data, offset, length);
+        } catch (RuntimeException e) {
+            long count = ++errors;
+            if (Long.bitCount(count) == 1) {
+                log.log(Level.SEVERE, String.format("Unable to dispatch id 0x%X, %d errors so far", id, count), e);
+            }
+        }
+    }
+
+    /**
+     * Failures of the dispatcher and of its listeners
+     */
+    public long getFailures() {
+        return errors + dispatcher.getErrors();
+    }
+
+    private void run() {
+        try {
+            while (running || !ring.isEmpty()) {
+                if (ring.drain(consumer, BATCH) == 0) {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+            }
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Stopped dispatching frames", e);
+        }
+    }
+
+    /**
+     * Stop accepting frames and dispatch the frames already queued
+     */
+    @Override
+    public void close() {
+        if (!running) return;
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
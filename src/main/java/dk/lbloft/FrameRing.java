@@ -0,0 +1,161 @@
+package dk.lbloft;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded ring of frames for handing frames from one producer thread to one consumer thread.
+ * Frames are stored in preallocated primitive arrays, so neither side allocates,
+ * and the producer never waits: when the ring is full the frame is dropped and counted.
+ */
+public class FrameRing {
+    public static final int MAX_LENGTH = 8;
+
+    public interface Consumer {
+        /**
+         * Receive a frame from the ring, data is only valid during the call
+         * @param bus Index of the bus the frame was received on
+         * @param timestamp Frame timestamp in micros
+         * @param id Can id
+         * @param extended True for 29 bit ids
+         * @param data Array holding the frame data
+         * @param offset Offset of the frame data in the array
+         * @param length Number of data bytes
+         */
+        void frame(int bus, long timestamp, int id, boolean extended, byte[] data, int offset, int length);
+    }
+
+    private final int mask;
+    private final byte[] buses;
+    private final long[] timestamps;
+    private final int[] ids;
+    private final boolean[] extended;
+    private final byte[] lengths;
+    private final byte[] data;
+    /* System.nanoTime() of the offers, only when stamped */
+    private final long[] stamps;
+    private long stamp;
+
+    /* Next slot to read, only written by the consumer */
+    private final AtomicLong head = new AtomicLong();
+    /* Next slot to write, only written by the producer */
+    private final AtomicLong tail = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param capacity Number of frames the ring can hold, rounded up to a power of two
+     */
+    public FrameRing(int capacity) {
+        this(capacity, false);
+    }
+
+    /**
+     * @param capacity Number of frames the ring can hold, rounded up to a power of two
+     * @param stamped Keep the time each frame was offered, see {@link #getStamp()}
+     */
+    public FrameRing(int capacity, boolean stamped) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mask = size - 1;
+        buses = new byte[size];
+        timestamps = new long[size];
+        ids = new int[size];
+        extended = new boolean[size];
+        lengths = new byte[size];
+        data = new byte[size * MAX_LENGTH];
+        stamps = stamped ? new long[size] : null;
+    }
+
+    /**
+     * Add a frame, called by the producer thread
+     * Payloads longer than 8 bytes are truncated
+     * @return False if the ring was full and the frame was dropped
+     */
+    public boolean offer(long timestamp, int id, boolean isExtended, byte[] payload, int length) {
+        return offer(0, timestamp, id, isExtended, payload, length);
+    }
+
+    /**
+     * Add a frame received on a bus, called by the producer thread
+     * @return False if the ring was full and the frame was dropped
+     */
+    public boolean offer(int bus, long timestamp, int id, boolean isExtended, byte[] payload, int length) {
+        return offer(bus, timestamp, id, isExtended, payload, 0, length);
+    }
+
+    /**
+     * Add a frame held at an offset in an array, called by the producer thread
+     * @return False if the ring was full and the frame was dropped
+     */
+    public boolean offer(int bus, long timestamp, int id, boolean isExtended, byte[] payload, int offset, int length) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            dropped.lazySet(dropped.get() + 1);
+            return false;
+        }
+        int slot = (int) t & mask;
+        length = Math.min(length, MAX_LENGTH);
+        buses[slot] = (byte) bus;
+        timestamps[slot] = timestamp;
+        ids[slot] = id;
+        extended[slot] = isExtended;
+        lengths[slot] = (byte) length;
+        System.arraycopy(payload, offset, data, slot * MAX_LENGTH, length);
+        if (stamps != null) stamps[slot] = System.nanoTime();
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Hand the waiting frames to the consumer, called by the consumer thread
+     * @param consumer Receiver of the frames
+     * @param max Max number of frames to drain
+     * @return Number of frames drained
+     */
+    public int drain(Consumer consumer, int max) {
+        long h = head.get();
+        long available = Math.min(tail.get() - h, max);
+        for (long i = 0; i < available; i++) {
+            int slot = (int) (h + i) & mask;
+            if (stamps != null) stamp = stamps[slot];
+            consumer.frame(buses[slot], timestamps[slot], ids[slot], extended[slot], data, slot * MAX_LENGTH, lengths[slot]);
+        }
+        head.lazySet(h + available);
+        return (int) available;
+    }
+
+    /**
+     * Timestamp of the next frame to drain, called by the consumer thread
+     * @return The timestamp or -1 if the ring is empty
+     */
+    public long peekTimestamp() {
+        long h = head.get();
+        return h == tail.get() ? -1 : timestamps[(int) h & mask];
+    }
+
+    /**
+     * System.nanoTime() when the frame handed to the consumer was offered, only valid during the call
+     * and if the ring is stamped
+     */
+    public long getStamp() {
+        return stamp;
+    }
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Number of frames dropped because the ring was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
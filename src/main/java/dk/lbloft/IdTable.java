@@ -0,0 +1,78 @@
+package dk.lbloft;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing table giving the extended ids consecutive indexes, so data per id can be kept in
+ * arrays and looked up without boxing the id.
+ *
+ * Ids are added while setting up and looked up by the dispatching thread, it isn't thread safe.
+ */
+class IdTable {
+    private static final int FREE = -1;
+
+    /* Index of the ids by hash, FREE if not used, at most half full */
+    private int[] table = new int[16];
+    private int[] ids = new int[8];
+    private int size;
+
+    IdTable() {
+        Arrays.fill(table, FREE);
+    }
+
+    /**
+     * Index of an id
+     * @return The index, -1 if the id hasn't been added
+     */
+    int get(int id) {
+        int mask = table.length - 1;
+        for (int i = hash(id, mask); ; i = (i + 1) & mask) {
+            int index = table[i];
+            if (index == FREE || ids[index] == id) return index;
+        }
+    }
+
+    /**
+     * Add an id if it isn't there
+     * @return The index of the id, the indexes count up from 0 in the order the ids were added
+     */
+    int add(int id) {
+        int index = get(id);
+        if (index != FREE) return index;
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            table = new int[table.length * 2];
+            Arrays.fill(table, FREE);
+            for (int i = 0; i < size; i++) {
+                put(ids[i], i);
+            }
+        }
+        ids[size] = id;
+        put(id, size);
+        return size++;
+    }
+
+    private void put(int id, int index) {
+        int mask = table.length - 1;
+        int i = hash(id, mask);
+        while (table[i] != FREE) {
+            i = (i + 1) & mask;
+        }
+        table[i] = index;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * The id at an index
+     */
+    int id(int index) {
+        return ids[index];
+    }
+
+    private static int hash(int id, int mask) {
+        return (id * 0x9E3779B9 >>> 16) & mask;
+    }
+}
@@ -0,0 +1,89 @@
+package dk.lbloft;
+
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * CanListener for int values, decoding and change detection are done without boxing
+ */
+public abstract class IntCanListener extends CanListener<Integer> {
+    private IntUnaryOperator intMapping = IntUnaryOperator.identity();
+
+    private int intValue;
+
+    private boolean hasValue;
+
+    public IntCanListener(String name, Integer ... ids) {
+        super(name, ids);
+    }
+
+    public IntCanListener setIntMapping(IntUnaryOperator mapping) {
+        this.intMapping = mapping;
+        return this;
+    }
+
+    @Override
+    public IntCanListener setMapping(Function<Integer, Integer> mapping) {
+        return setIntMapping(i -> mapping.apply(i));
+    }
+
+    /**
+     * Process can data to extract a value
+     * @param id Can id
+     * @param data Can data (up to 8 bytes)
+     * @return The calculated value
+     */
+    public abstract int handleInt(int id, ByteBuffer data);
+
+    @Override
+    public final Integer handle(int id, ByteBuffer data) {
+        return handleInt(id, data);
+    }
+
+    @Override
+    void update(int id, ByteBuffer data) {
+        int newValue = intMapping.applyAsInt(handleInt(id, data));
+        changed = !hasValue || intValue != newValue;
+        intValue = newValue;
+        hasValue = true;
+        if (window != null) window.add(getClock().currentTimeMicros(), newValue);
+        if(changed) onChange(newValue);
+    }
+
+    @Override
+    void snapshot(SignalSnapshot snapshot, int index) {
+        if (hasValue) {
+            snapshot.setLong(index, intValue);
+        } else {
+            snapshot.setNone(index);
+        }
+    }
+
+    /**
+     * Tricker when the value is changed, after the new value is stored, so {@link #getInt()} returns it
+     * @param value The new value
+     */
+    protected void onChange(int value) {}
+
+    /**
+     * Changes are reported to {@link #onChange(int)} without boxing, override that instead
+     */
+    @Override
+    protected final void onChange(Integer value) {
+        onChange(value.intValue());
+    }
+
+    public boolean hasValue() {
+        return hasValue;
+    }
+
+    public int getInt() {
+        return intValue;
+    }
+
+    @Override
+    public Integer getValue() {
+        return hasValue ? intValue : null;
+    }
+}
@@ -0,0 +1,89 @@
+package dk.lbloft;
+
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * CanListener for long values, decoding and change detection are done without boxing
+ */
+public abstract class LongCanListener extends CanListener<Long> {
+    private LongUnaryOperator longMapping = LongUnaryOperator.identity();
+
+    private long longValue;
+
+    private boolean hasValue;
+
+    public LongCanListener(String name, Integer ... ids) {
+        super(name, ids);
+    }
+
+    public LongCanListener setLongMapping(LongUnaryOperator mapping) {
+        this.longMapping = mapping;
+        return this;
+    }
+
+    @Override
+    public LongCanListener setMapping(Function<Long, Long> mapping) {
+        return setLongMapping(l -> mapping.apply(l));
+    }
+
+    /**
+     * Process can data to extract a value
+     * @param id Can id
+     * @param data Can data (up to 8 bytes)
+     * @return The calculated value
+     */
+    public abstract long handleLong(int id, ByteBuffer data);
+
+    @Override
+    public final Long handle(int id, ByteBuffer data) {
+        return handleLong(id, data);
+    }
+
+    @Override
+    void update(int id, ByteBuffer data) {
+        long newValue = longMapping.applyAsLong(handleLong(id, data));
+        changed = !hasValue || longValue != newValue;
+        longValue = newValue;
+        hasValue = true;
+        if (window != null) window.add(getClock().currentTimeMicros(), newValue);
+        if(changed) onChange(newValue);
+    }
+
+    @Override
+    void snapshot(SignalSnapshot snapshot, int index) {
+        if (hasValue) {
+            snapshot.setLong(index, longValue);
+        } else {
+            snapshot.setNone(index);
+        }
+    }
+
+    /**
+     * Tricker when the value is changed, after the new value is stored, so {@link #getLong()} returns it
+     * @param value The new value
+     */
+    protected void onChange(long value) {}
+
+    /**
+     * Changes are reported to {@link #onChange(long)} without boxing, override that instead
+     */
+    @Override
+    protected final void onChange(Long value) {
+        onChange(value.longValue());
+    }
+
+    public boolean hasValue() {
+        return hasValue;
+    }
+
+    public long getLong() {
+        return longValue;
+    }
+
+    @Override
+    public Long getValue() {
+        return hasValue ? longValue : null;
+    }
+}
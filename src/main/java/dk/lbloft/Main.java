@@ -1,135 +1,216 @@
 package dk.lbloft;
 
-import com.github.kayak.core.*;
+import dk.lbloft.dbc.DbcParser;
 import dk.lbloft.exporter.CanExporter;
+import dk.lbloft.exporter.Compression;
 import dk.lbloft.exporter.ConsoleExporter;
 import dk.lbloft.exporter.FileExporter;
+import dk.lbloft.exporter.StatisticsExporter;
+import lombok.Getter;
 import picocli.CommandLine;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
 
 @CommandLine.Command(name = "can")
 public class Main implements Callable<Integer> {
-    boolean running = true;
+    enum View {SIGNALS, STATISTICS}
 
+    @Getter
     @CommandLine.Option(names = {"-h", "--host"}, description = "The host to connect to", defaultValue = "127.0.0.1")
     private String host;
 
+    @Getter
     @CommandLine.Option(names = {"-p", "--port"}, description = "The port to connect to", defaultValue = "28600")
     private int port;
 
-    @CommandLine.Option(names = {"-b", "--bus"}, description = "The name of the bus", defaultValue = "can0")
-    private String bus;
+    @CommandLine.Option(names = {"-b", "--bus"}, description = "The name of a bus, can be repeated to log several buses. Defaults to can0")
+    private List<String> buses = new ArrayList<>();
 
+    @Getter
     @CommandLine.Option(names = {"-o", "--out-dir"}, description = "Dir to dump trip logs", defaultValue = "trip")
     private File outDir;
 
-    private Bus busConnection;
-    private ArrayList<CanListener<?>> listeners = new ArrayList<>();
-    private ArrayList<CanExporter> exporters = new ArrayList<>();
+    @CommandLine.Option(names = {"-d", "--dbc"}, description = "DBC file with extra signals to decode, can be repeated. " +
+            "Prefix with bus= to decode another bus than the first, eg. can1=comfort.dbc")
+    private List<File> dbcFiles = new ArrayList<>();
+
+    @Getter
+    @CommandLine.Option(names = {"--fsync"}, description = "When to force the trip log to disk: ${COMPLETION-CANDIDATES}", defaultValue = "NEVER")
+    private FileExporter.FsyncPolicy fsync;
+
+    @CommandLine.Option(names = {"--console-rate"}, description = "Max console updates per second", defaultValue = "10")
+    private double consoleRate;
+
+    @Getter
+    @CommandLine.Option(names = {"--file-interval"}, description = "Min ms between trip log rows, 0 to log every change", defaultValue = "0")
+    private long fileInterval;
+
+    @Getter
+    @CommandLine.Option(names = {"--rotate-size"}, description = "Start a new trip log segment after this many MB, 0 for one file", defaultValue = "0")
+    private long rotateSize;
+
+    @Getter
+    @CommandLine.Option(names = {"--rotate-interval"}, description = "Start a new trip log segment after this many minutes, 0 for one file", defaultValue = "0")
+    private long rotateInterval;
+
+    @Getter
+    @CommandLine.Option(names = {"--compress"}, description = "How to compress closed trip log segments: ${COMPLETION-CANDIDATES}", defaultValue = "NONE")
+    private Compression compress;
+
+    @Getter
+    @CommandLine.Option(names = {"--retain"}, description = "Delete the oldest trip logs when they take more than this many MB, 0 to keep all", defaultValue = "0")
+    private long retain;
+
+    @Getter
+    @CommandLine.Option(names = {"--bitrate"}, description = "Bitrate of the buses, for the bus load", defaultValue = "500000")
+    private int bitrate;
+
+    @CommandLine.Option(names = {"--view"}, description = "What the console shows: ${COMPLETION-CANDIDATES}", defaultValue = "SIGNALS")
+    private View view;
+
+    @Getter
+    @CommandLine.Option(names = {"--metrics-port"}, description = "Serve the values and counters at http://host:port/metrics, 0 to not serve them", defaultValue = "0")
+    private int metricsPort;
+
+    @Getter
+    @CommandLine.Option(names = {"--latency"}, description = "Measure the latency of the frames from the bus to the exporters and log the percentiles with the counters")
+    private boolean latency;
+
+    @CommandLine.Option(names = {"--aggregate"}, description = "Also log the min, max etc. a signal had in the last window, to see values between two rows, can be repeated")
+    private List<String> aggregate = new ArrayList<>();
+
+    @CommandLine.Option(names = {"--window"}, description = "Seconds of values aggregated by --aggregate", defaultValue = "1")
+    private double window;
+
+    @CommandLine.Option(names = {"--statistics"}, split = ",", description = "Aggregates of --aggregate: ${COMPLETION-CANDIDATES}", defaultValue = "MIN,MAX,MEAN")
+    private List<WindowAggregate.Statistic> statistics = new ArrayList<>();
+
+    @Getter
+    @CommandLine.Option(names = {"-r", "--record"}, description = "Record every raw frame to a capture file in the out dir")
+    private boolean record;
 
     public static void main(String[] args) {
         System.exit(new CommandLine(new Main())
                 .addSubcommand(new Daemon())
+                .addSubcommand(new Replay())
+                .addSubcommand(new Query())
+                .addSubcommand(new Analyze())
+                .addSubcommand(new Simulate())
                 .execute(args)
         );
     }
 
-    public CanListener add(CanListener<?> listener) {
-        Subscription subscription = new Subscription(listener, busConnection);
-        for (Integer id : listener.getIds()) {
-            subscription.subscribe(id, false);
-        }
-        return listener;
-    }
-
     @Override
     public Integer call() throws Exception {
-        Console.out.printf("Connecting to %s on %s:%s\n", bus, host, port);
-
-        BusURL url = new BusURL(host, port, bus); /* Connection to the socketcand */
-        TimeSource timeSource = new TimeSource(); /* TimeSource to control the bus */
-
-        /* Create a bus and configure it */
-        busConnection = new Bus();
-        busConnection.setConnection(url);
-        busConnection.setTimeSource(timeSource);
-
-        listeners = buildListeners();
-
-        exporters.add(new ConsoleExporter());
+        Console.out.printf("Connecting to %s on %s:%s\n", String.join(", ", getBuses()), host, port);
 
         outDir.mkdirs();
-        exporters.add(new FileExporter(new File(outDir, String.format("trip-%1$tF-%1$tR.log", new Date()))));
-
-        for (CanListener listener : listeners) {
-            add(listener);
+        TripLogger logger = new TripLogger(this, new Date(), FramePipeline.DEFAULT_CAPACITY, FramePipeline.OverflowPolicy.DROP);
+
+        /* The console is refreshed at least every second for RunTime and the ages of the frames */
+        CanExporter console;
+        if (view == View.STATISTICS) {
+            console = new StatisticsExporter(logger.getBuses().stream().map(CanBus::getStatistics).collect(Collectors.toList()));
+        } else {
+            console = new ConsoleExporter();
         }
+        logger.getScheduler().add(console, (long) (1000 / consoleRate), 1000);
+
+        logger.start().runUntilStopped(0);
+        return 0;
+    }
 
-        /* Starting the TimeSource will make the Bus connect to the socketcand
-         * and deliver Frames. After two seconds the connections are terminated.
-         */
-        timeSource.play();
+    /**
+     * Names of the buses to log
+     */
+    public List<String> getBuses() {
+        return buses.isEmpty() ? Collections.singletonList("can0") : buses;
+    }
 
-        Runtime.getRuntime().addShutdownHook(new Thread() {
-            @Override
-            public void run() {
-                running = false;
+    /**
+     * DBC files for a bus, files without a bus= prefix belong to the first bus
+     */
+    public List<File> getDbcFiles(String bus) {
+        List<String> names = getBuses();
+        List<File> files = new ArrayList<>();
+        for (File file : dbcFiles) {
+            String path = file.getPath();
+            int separator = path.indexOf('=');
+            if (separator > 0 && names.contains(path.substring(0, separator))) {
+                if (path.substring(0, separator).equals(bus)) files.add(new File(path.substring(separator + 1)));
+            } else if (bus.equals(names.get(0))) {
+                files.add(file);
             }
-        });
+        }
+        return files;
+    }
+
+    /**
+     * Listeners of a bus, the built in signals are decoded on the first bus
+     * Aggregated signals are followed by their aggregates
+     * @param index Index of the bus
+     */
+    public ArrayList<CanListener<?>> buildListeners(int index) throws IOException {
+        ArrayList<CanListener<?>> listeners = index == 0 ? buildListeners() : new ArrayList<>();
+        for (File dbcFile : getDbcFiles(getBuses().get(index))) {
+            listeners.addAll(DbcParser.load(dbcFile));
+        }
+        if (aggregate.isEmpty()) return listeners;
 
-        while (running) {
-            Thread.sleep(1000);
-            for (CanExporter exporter : exporters) {
-                exporter.export(listeners);
+        ArrayList<CanListener<?>> aggregated = new ArrayList<>();
+        for (CanListener<?> listener : listeners) {
+            aggregated.add(listener);
+            if (aggregate.contains(listener.getName())) {
+                aggregated.addAll(WindowAggregate.of(listener, (long) (window * 1_000_000), statistics));
             }
         }
+        return aggregated;
+    }
 
-        timeSource.stop();
+    /**
+     * File in the out dir for the trip started at start
+     */
+    public File tripFile(Date start, String extension) {
+        return new File(outDir, String.format("trip-%1$tF-%1$tR", start) + extension);
+    }
 
-        return 0;
+    /**
+     * Build the listeners followed by the signals of the DBC files
+     */
+    public static ArrayList<CanListener<?>> buildListeners(Collection<File> dbcFiles) throws IOException {
+        ArrayList<CanListener<?>> listeners = buildListeners();
+        for (File dbcFile : dbcFiles) {
+            listeners.addAll(DbcParser.load(dbcFile));
+        }
+        return listeners;
     }
 
     public static ArrayList<CanListener<?>> buildListeners() {
         ArrayList<CanListener<?>> listeners = new ArrayList<>();
 
-        listeners.add(CanListener.getByte( "Speed", 0, 0x3D0));
-        listeners.add(CanListener.getShort("RPM", 0, 0x1C4).setMapping(i -> (int)(i*1.25)));
+        IntCanListener speed = CanListener.getByte( "Speed", 0, 0x3D0);
+        listeners.add(speed);
+        listeners.add(CanListener.getShort("RPM", 0, 0x1C4).setIntMapping(i -> (int)(i*1.25)));
         listeners.add(CanListener.getInt("Trip", 4, 0x611));
         listeners.add(CanListener.getShort("Left (km)", 5, 0x619));
+        IntCanListener maf = CanListener.getShort("MAF", 0, 0x3D3);
+        listeners.add(maf);
 
-        listeners.add(new CanListener<Double>("Fuel Used", 0x3D3) {
-            private long last = -1;
-
-            @Override
-            public Double handle(int id, ByteBuffer data) {
-                long current = System.currentTimeMillis();
-                long diff = current - last;
-                last = current;
-                if(getValue() == null) {
-                    return 0.0;
-                } else {
-                    int maf = data.getShort() & 0xFFFF;
-                    return getValue() + (maf / (14.7 * 740) * (diff / 1000));
-                }
-            }
-        });
-
-        listeners.add(new CanListener<Double>("Fuel", 0x3D0, 0x3D3) {
-            int speed = 0;
-            int maf = 0;
+        /* A maf of 14.7 * 740 burns one liter per second */
+        listeners.add(DerivedSignal.integral("Fuel Used", maf, 1 / (14.7 * 740)));
 
-            @Override
-            public Double handle(int id, ByteBuffer data) {
-                if(id == 0x3D0) speed = data.get() & 0xFF;
-                if(id == 0x3D3) maf = data.getShort() & 0xffff;
-                return Math.round(maf * (3600 / (14.7 * 740)) / speed * 100) / 100.0;  // Calc l/100km
-            }
-        });
+        /* Calc l/100km, not defined when standing still */
+        listeners.add(new DerivedSignal("Fuel", in -> in[0] == 0 ? Double.NaN
+                : Math.round(in[1] * (3600 / (14.7 * 740)) / in[0] * 100) / 100.0, speed, maf));
 
         listeners.add(new CanListener<Integer>("Distance", 0x611) {
             private int start = 0;
@@ -144,11 +225,13 @@ public class Main implements Callable<Integer> {
         });
 
         listeners.add(new CanListener<String>("RunTime") {
-            long startTime = System.currentTimeMillis();
+            long startTime = -1;
 
             @Override
             public String getValue() {
-                return Console.toPrittyTime(System.currentTimeMillis() - startTime);
+                long now = getClock().currentTimeMillis();
+                if(startTime < 0) startTime = now;
+                return Console.toPrittyTime(now - startTime);
             }
         });
 
@@ -174,7 +257,4 @@ public class Main implements Callable<Integer> {
 
         return listeners;
     }
-
-    /* FrameListener that will print out every Frame it receives */
-    private static FrameListener receiver = frame -> System.out.println(frame.toLogFileNotation());
 }
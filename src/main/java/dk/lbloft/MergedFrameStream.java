@@ -0,0 +1,155 @@
+package dk.lbloft;
+
+import com.github.kayak.core.FrameListener;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * The frames of several buses merged into one stream ordered by timestamp.
+ *
+ * Every bus has its own {@link FrameRing}, filled by the delivery thread of the bus. The merge thread
+ * hands the oldest waiting frame to the consumer when every bus has a frame waiting, or when a newer
+ * frame than the max delay has arrived on another bus, so a quiet bus only holds back the others that long.
+ * Frames arriving later than the max delay are passed on out of order.
+ */
+@Log
+public class MergedFrameStream implements Closeable {
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 100;
+
+    private static final long IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final FrameRing[] rings;
+    /* Newest timestamp offered on each bus, written by the delivery thread of the bus */
+    private final AtomicLongArray newest;
+    private final long maxDelayMicros;
+    private final FrameRing.Consumer consumer;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    /**
+     * Frames handed to the consumer
+     */
+    @Getter
+    private volatile long merged;
+
+    /**
+     * @param buses Number of buses
+     * @param capacity Frames each bus can have waiting
+     * @param maxDelay How long a quiet bus may hold back the others, in frame time
+     * @param unit Unit of the max delay
+     * @param consumer Receiver of the merged frames, called by the merge thread
+     */
+    public MergedFrameStream(int buses, int capacity, long maxDelay, TimeUnit unit, FrameRing.Consumer consumer) {
+        this.rings = new FrameRing[buses];
+        for (int i = 0; i < buses; i++) {
+            rings[i] = new FrameRing(capacity);
+        }
+        this.newest = new AtomicLongArray(buses);
+        this.maxDelayMicros = unit.toMicros(maxDelay);
+        this.consumer = consumer;
+        this.thread = new Thread(this::run, "merged-frames");
+        thread.setDaemon(true);
+    }
+
+    public MergedFrameStream start() {
+        thread.start();
+        return this;
+    }
+
+    /**
+     * Listener for the frames of a bus, called by the delivery thread of that bus only
+     * @param bus Index of the bus
+     */
+    public FrameListener input(int bus) {
+        return frame -> {
+            byte[] data = frame.getData();
+            offer(bus, frame.getTimestamp(), frame.getIdentifier(), frame.isExtended(), data, data.length);
+        };
+    }
+
+    /**
+     * Add a frame of a bus, called by the delivery thread of that bus only
+     * @return False if the frame was dropped
+     */
+    public boolean offer(int bus, long timestamp, int id, boolean extended, byte[] data, int length) {
+        newest.lazySet(bus, timestamp);
+        return rings[bus].offer(bus, timestamp, id, extended, data, length);
+    }
+
+    /**
+     * Frames dropped on all buses because the merge thread couldn't keep up
+     */
+    public long getDropped() {
+        long dropped = 0;
+        for (FrameRing ring : rings) {
+            dropped += ring.getDropped();
+        }
+        return dropped;
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                boolean stopping = !running;
+                int oldest = next(stopping);
+                if (oldest >= 0) {
+                    rings[oldest].drain(consumer, 1);
+                    merged++;
+                } else if (stopping) {
+                    break;
+                } else {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+            }
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Stopped merging frames", e);
+        }
+    }
+
+    /**
+     * Find the bus with the frame to hand out next
+     * @param flush Hand out waiting frames without waiting for the other buses
+     * @return Index of the bus or -1 if no frame can be handed out yet
+     */
+    private int next(boolean flush) {
+        int oldest = -1;
+        long oldestTimestamp = Long.MAX_VALUE;
+        long newestTimestamp = Long.MIN_VALUE;
+        boolean complete = true;
+        for (int i = 0; i < rings.length; i++) {
+            long timestamp = rings[i].peekTimestamp();
+            if (timestamp < 0) {
+                complete = false;
+            } else if (timestamp < oldestTimestamp) {
+                oldestTimestamp = timestamp;
+                oldest = i;
+            }
+            newestTimestamp = Math.max(newestTimestamp, newest.get(i));
+        }
+        if (oldest < 0 || complete || flush || oldestTimestamp <= newestTimestamp - maxDelayMicros) {
+            return oldest;
+        }
+        return -1;
+    }
+
+    /**
+     * Stop merging after handing out the waiting frames
+     */
+    @Override
+    public void close() {
+        if (!running) return;
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package dk.lbloft;
+
+import dk.lbloft.capture.CaptureIndex;
+import dk.lbloft.capture.CaptureReader;
+import dk.lbloft.capture.CaptureWriter;
+import picocli.CommandLine;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static dk.lbloft.capture.CaptureFormat.EXTENDED_FLAG;
+
+@CommandLine.Command(name = "query", description = "Select the frames of a capture in a time range with some ids, using the index of the capture")
+public class Query implements Callable<Integer> {
+    @CommandLine.Parameters(index = "0", description = "The capture file to query")
+    private File capture;
+
+    @CommandLine.Option(names = {"-i", "--id"}, description = "Can id in hex, ids above 7FF and ids written with 8 digits like 000001C4 are extended, can be repeated, all ids if not set")
+    private List<String> ids = new ArrayList<>();
+
+    @CommandLine.Option(names = {"-f", "--from"}, description = "First time as HH:mm[:ss] on the day of the capture, yyyy-MM-ddTHH:mm[:ss] or +seconds from the start")
+    private String from;
+
+    @CommandLine.Option(names = {"-t", "--to"}, description = "Time after the last frame, in the formats of --from")
+    private String to;
+
+    @CommandLine.Option(names = {"-o", "--out"}, description = "Write the frames to a new capture instead of printing them")
+    private File out;
+
+    @Override
+    public Integer call() throws Exception {
+        try (CaptureReader reader = new CaptureReader(capture)) {
+            long started = System.nanoTime();
+            CaptureIndex index = CaptureIndex.load(reader);
+            long fromMicros = from == null ? Long.MIN_VALUE : parseTime(from, reader.getStartTime());
+            long toMicros = to == null ? Long.MAX_VALUE : parseTime(to, reader.getStartTime()) - 1;
+            int[] selected = ids.isEmpty() ? null : ids.stream().mapToInt(Query::parseId).toArray();
+
+            long frames;
+            if (out != null) {
+                try (CaptureWriter writer = new CaptureWriter(out)) {
+                    frames = index.select(reader, fromMicros, toMicros, selected, (bus, timestamp, id, extended, data, offset, length) -> {
+                        /* The writer drops frames when it falls behind, wait for it instead */
+                        while (!writer.record(bus, timestamp, id, extended, data, offset, length)) {
+                            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                        }
+                    });
+                }
+            } else {
+                PrintStream print = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 64 * 1024), false);
+                StringBuilder line = new StringBuilder(64);
+                frames = index.select(reader, fromMicros, toMicros, selected, (bus, timestamp, id, extended, data, offset, length) -> {
+                    line.setLength(0);
+                    line.append(String.format("(%d.%06d) %d %0" + (extended ? 8 : 3) + "X#", timestamp / 1_000_000, timestamp % 1_000_000, bus, id));
+                    for (int i = 0; i < length; i++) {
+                        line.append(Character.toUpperCase(Character.forDigit((data[offset + i] >> 4) & 0xF, 16)));
+                        line.append(Character.toUpperCase(Character.forDigit(data[offset + i] & 0xF, 16)));
+                    }
+                    print.println(line);
+                });
+                print.flush();
+            }
+            long elapsed = System.nanoTime() - started;
+            Console.err.ok(String.format("Selected %d of %d frames in %s", frames, reader.size(),
+                    Console.toPrittyTime(elapsed, TimeUnit.NANOSECONDS)));
+        }
+        return 0;
+    }
+
+    /**
+     * Parse an id as printed, an id with 8 digits is extended like in candump, also below 0x800
+     * @return The id with the extended flag of the index
+     */
+    static int parseId(String id) {
+        String digits = id.replaceFirst("^0[xX]", "");
+        int value = (int) Long.parseLong(digits, 16);
+        return value > 0x7FF || digits.length() == 8 ? value | EXTENDED_FLAG : value;
+    }
+
+    /**
+     * @param value The time as HH:mm[:ss] on the day of the capture, yyyy-MM-ddTHH:mm[:ss] or +seconds from the start
+     * @param startMillis Start of the capture
+     * @return The time in micros since the epoch, like the frame timestamps
+     */
+    static long parseTime(String value, long startMillis) {
+        if (value.startsWith("+")) {
+            return TimeUnit.MILLISECONDS.toMicros(startMillis) + (long) (Double.parseDouble(value.substring(1)) * 1e6);
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDateTime time = value.contains("T")
+                ? LocalDateTime.parse(value)
+                : LocalDateTime.ofInstant(Instant.ofEpochMilli(startMillis), zone).toLocalDate().atTime(LocalTime.parse(value));
+        return TimeUnit.MILLISECONDS.toMicros(time.atZone(zone).toInstant().toEpochMilli());
+    }
+}
@@ -0,0 +1,110 @@
+package dk.lbloft;
+
+import dk.lbloft.capture.CaptureReader;
+import dk.lbloft.exporter.CanExporter;
+import dk.lbloft.exporter.ConsoleExporter;
+import dk.lbloft.exporter.FileExporter;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+@CommandLine.Command(name = "replay", description = "Replay a capture through the listeners and exporters")
+public class Replay implements Callable<Integer> {
+    @CommandLine.Parameters(index = "0", description = "The capture file to replay")
+    private File capture;
+
+    @CommandLine.Option(names = {"-d", "--dbc"}, description = "DBC file with extra signals to decode, can be repeated")
+    private List<File> dbcFiles = new ArrayList<>();
+
+    @CommandLine.Option(names = {"-s", "--speed"}, description = "Replay speed, 1 is real time and 0 is as fast as possible", defaultValue = "1")
+    private double speed;
+
+    @CommandLine.Option(names = {"-o", "--out-dir"}, description = "Dir to dump the trip log, no trip log if not set")
+    private File outDir;
+
+    @CommandLine.Option(names = {"-i", "--export-interval"}, description = "Capture time in ms between exports", defaultValue = "1000")
+    private long exportInterval;
+
+    @CommandLine.Option(names = {"-b", "--bus"}, description = "Index of the bus in the capture to decode, the frames of other buses are skipped", defaultValue = "0")
+    private int bus;
+
+    @CommandLine.Option(names = {"-q", "--quiet"}, description = "Don't show the values on the console while replaying")
+    private boolean quiet;
+
+    @Override
+    public Integer call() throws Exception {
+        ArrayList<CanListener<?>> listeners = Main.buildListeners(dbcFiles);
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        for (CanListener<?> listener : listeners) {
+            dispatcher.add(listener);
+        }
+
+        ArrayList<CanExporter> exporters = new ArrayList<>();
+        if (!quiet && speed > 0) {
+            exporters.add(new ConsoleExporter());
+        }
+
+        try (CaptureReader reader = new CaptureReader(capture)) {
+            if (outDir != null) {
+                outDir.mkdirs();
+                exporters.add(new FileExporter(new File(outDir, String.format("trip-%1$tF-%1$tR.log", new Date(reader.getStartTime())))));
+            }
+
+            long started = System.nanoTime();
+            SignalSnapshot snapshot = new SignalSnapshot(listeners);
+            long frames = replay(reader, dispatcher, snapshot, exporters);
+            long elapsed = System.nanoTime() - started;
+
+            dispatcher.snapshot(snapshot);
+            for (CanExporter exporter : exporters) {
+                exporter.export(snapshot);
+                exporter.close();
+            }
+            Console.out.ok(String.format("Replayed %d frames in %s (%.0f frames/s)",
+                    frames, Console.toPrittyTime(elapsed, TimeUnit.NANOSECONDS), frames / Math.max(elapsed / 1e9, 1e-9)));
+        }
+        return 0;
+    }
+
+    private long replay(CaptureReader reader, FrameDispatcher dispatcher, SignalSnapshot snapshot, ArrayList<CanExporter> exporters) {
+        CaptureReader.Cursor cursor = reader.cursor();
+        long intervalMicros = TimeUnit.MILLISECONDS.toMicros(exportInterval);
+        long started = System.nanoTime();
+        long first = 0;
+        long nextExport = 0;
+        long frames = 0;
+
+        while (cursor.next()) {
+            /* The listeners decode the signals of one bus, the same ids mean other things on other buses */
+            if (cursor.bus() != bus) continue;
+            long timestamp = cursor.timestamp();
+            if (frames++ == 0) {
+                first = timestamp;
+                nextExport = timestamp + intervalMicros;
+            }
+            if (speed > 0) {
+                /* Wait until the frame is due relative to the first frame */
+                long due = started + (long) (TimeUnit.MICROSECONDS.toNanos(timestamp - first) / speed);
+                long wait = due - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(wait);
+            }
+
+            dispatcher.dispatch(timestamp, cursor.id(), cursor.extended(), cursor.data(), 0, cursor.length());
+
+            if (timestamp >= nextExport && !exporters.isEmpty()) {
+                dispatcher.snapshot(snapshot);
+                for (CanExporter exporter : exporters) {
+                    exporter.export(snapshot);
+                }
+                nextExport = timestamp + intervalMicros;
+            }
+        }
+        return frames;
+    }
+}
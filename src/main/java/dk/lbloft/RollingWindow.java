@@ -0,0 +1,174 @@
+package dk.lbloft;
+
+import lombok.Getter;
+
+/**
+ * The values of a signal in the last window of time, kept in primitive rings.
+ *
+ * Values are added on the dispatching thread without allocating. Min and max are kept in monotonic queues
+ * and the sum as a running total, so count, min, max and mean are found in constant time. Percentiles are
+ * found by selecting in a copy of the values when asked for. A window holds at most capacity - 1 values,
+ * the oldest are dropped before they are out of the window if the signal is faster than that.
+ *
+ * Queries may run on other threads while values are added, like the listener values they must be read
+ * between two frames, eg. in {@link FrameDispatcher#snapshot(SignalSnapshot)}.
+ */
+public class RollingWindow {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    @Getter
+    private final long windowMicros;
+    private final int mask;
+
+    /* Indexed by the sequence number of a value masked by the capacity */
+    private final long[] timestamps;
+    private final double[] values;
+    /* Running total including the value */
+    private final double[] sums;
+
+    /* Sequence numbers of increasing values for the min and decreasing values for the max */
+    private final long[] minQueue;
+    private final long[] maxQueue;
+    private long minHead;
+    private long minTail;
+    private long maxHead;
+    private long maxTail;
+
+    /* Sequence numbers of the oldest value kept and of the next value */
+    private long first;
+    private long next;
+
+    /* Copy of the values for selecting percentiles */
+    private final double[] scratch;
+
+    /**
+     * @param windowMicros Length of the window in micros
+     * @param capacity Max values kept, rounded up to a power of two
+     */
+    public RollingWindow(long windowMicros, int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.windowMicros = windowMicros;
+        this.mask = size - 1;
+        timestamps = new long[size];
+        values = new double[size];
+        sums = new double[size];
+        minQueue = new long[size];
+        maxQueue = new long[size];
+        scratch = new double[size];
+    }
+
+    /**
+     * Add a value, NaN values are ignored
+     * @param timestamp Time of the value in micros, not before the previous value
+     */
+    public void add(long timestamp, double value) {
+        if (Double.isNaN(value)) return;
+        long seq = next;
+        int index = (int) seq & mask;
+        timestamps[index] = timestamp;
+        values[index] = value;
+        sums[index] = seq == 0 ? value : sums[(int) (seq - 1) & mask] + value;
+
+        while (minTail > minHead && values[(int) minQueue[(int) (minTail - 1) & mask] & mask] >= value) minTail--;
+        minQueue[(int) minTail++ & mask] = seq;
+        while (maxTail > maxHead && values[(int) maxQueue[(int) (maxTail - 1) & mask] & mask] <= value) maxTail--;
+        maxQueue[(int) maxTail++ & mask] = seq;
+
+        /* Keep one slot free, the running total before the oldest value is needed for the sum */
+        long oldest = Math.max(first, seq + 2 - timestamps.length);
+        while (oldest < seq && timestamps[(int) oldest & mask] < timestamp - windowMicros) oldest++;
+        first = oldest;
+        while (minQueue[(int) minHead & mask] < oldest) minHead++;
+        while (maxQueue[(int) maxHead & mask] < oldest) maxHead++;
+        next = seq + 1;
+    }
+
+    /**
+     * Sequence number of the oldest value in the window ending at a time
+     */
+    private long start(long now) {
+        long start = first;
+        while (start < next && timestamps[(int) start & mask] < now - windowMicros) start++;
+        return start;
+    }
+
+    /**
+     * Number of values in the window ending at a time
+     * @param now End of the window in micros
+     */
+    public int count(long now) {
+        return (int) (next - start(now));
+    }
+
+    public double min(long now) {
+        long start = start(now);
+        for (long i = minHead; i < minTail; i++) {
+            long seq = minQueue[(int) i & mask];
+            if (seq >= start) return values[(int) seq & mask];
+        }
+        return Double.NaN;
+    }
+
+    public double max(long now) {
+        long start = start(now);
+        for (long i = maxHead; i < maxTail; i++) {
+            long seq = maxQueue[(int) i & mask];
+            if (seq >= start) return values[(int) seq & mask];
+        }
+        return Double.NaN;
+    }
+
+    public double mean(long now) {
+        long start = start(now);
+        if (start >= next) return Double.NaN;
+        double before = start == 0 ? 0 : sums[(int) (start - 1) & mask];
+        return (sums[(int) (next - 1) & mask] - before) / (next - start);
+    }
+
+    /**
+     * The value below which a share of the values in the window are, with the nearest rank
+     * @param now End of the window in micros
+     * @param percentile Between 0 and 100
+     */
+    public synchronized double percentile(long now, double percentile) {
+        long start = start(now);
+        /* Bounded, the values may be read while they are added */
+        int count = (int) Math.min(next - start, scratch.length);
+        if (count <= 0) return Double.NaN;
+        for (int i = 0; i < count; i++) {
+            scratch[i] = values[(int) (start + i) & mask];
+        }
+        int rank = (int) Math.ceil(percentile / 100 * count) - 1;
+        return select(scratch, count, Math.max(0, Math.min(count - 1, rank)));
+    }
+
+    /**
+     * Find the k'th smallest of the first values of an array with quickselect, reordering them
+     */
+    static double select(double[] values, int count, int k) {
+        int left = 0;
+        int right = count - 1;
+        while (left < right) {
+            double pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    double swap = values[i];
+                    values[i++] = values[j];
+                    values[j--] = swap;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return values[k];
+            }
+        }
+        return values[k];
+    }
+}
@@ -0,0 +1,95 @@
+package dk.lbloft;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Draw a screen of lines on a Console, only rewriting the rows changed since the previous screen.
+ *
+ * Rows are updated in place by moving the cursor, and the whole update is written at once, so the
+ * screen does not flicker. It is only cleared when the terminal size changes.
+ */
+public class ScreenRenderer {
+    private static final String CLEAR = "\033[H\033[2J";
+    private static final String CLEAR_TO_END = "\033[K";
+
+    private final Console console;
+    private final List<String> lines = new ArrayList<>();
+    private final StringBuilder buffer = new StringBuilder(4096);
+    private String[] previous = new String[0];
+    private int width = -1;
+    private int height = -1;
+
+    public ScreenRenderer(Console console) {
+        this.console = console;
+    }
+
+    /**
+     * Start a new screen
+     */
+    public ScreenRenderer begin() {
+        lines.clear();
+        return this;
+    }
+
+    /**
+     * Add a row to the screen, it must fit the width of the terminal
+     */
+    public ScreenRenderer line(String line) {
+        lines.add(line);
+        return this;
+    }
+
+    /**
+     * Write the rows that differ from the previous screen
+     * @return The number of rows written
+     */
+    public int render() {
+        int w = console.getWidth();
+        int h = console.getHeight();
+        boolean repaint = w != width || h != height;
+        width = w;
+        height = h;
+
+        buffer.setLength(0);
+        if (repaint) buffer.append(CLEAR);
+
+        /* Rows below the terminal would scroll the screen */
+        int rows = Math.min(lines.size(), h - 1);
+        String[] current = new String[rows];
+        int written = 0;
+        for (int row = 0; row < rows; row++) {
+            current[row] = lines.get(row);
+            if (repaint || row >= previous.length || !current[row].equals(previous[row])) {
+                moveTo(row).append(current[row]).append(CLEAR_TO_END);
+                written++;
+            }
+        }
+        if (!repaint) {
+            for (int row = rows; row < previous.length; row++) {
+                moveTo(row).append(CLEAR_TO_END);
+            }
+        }
+        previous = current;
+
+        if (buffer.length() > 0) {
+            /* Leave the cursor below the screen */
+            moveTo(rows);
+            console.beginFrame();
+            console.append(buffer);
+            console.endFrame();
+        }
+        return written;
+    }
+
+    /**
+     * Forget the previous screen, the next render repaints everything
+     */
+    public void invalidate() {
+        width = -1;
+    }
+
+    private StringBuilder moveTo(int row) {
+        return buffer.append("\033[").append(row + 1).append(";1H");
+    }
+}
@@ -0,0 +1,140 @@
+package dk.lbloft;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Copy of the values of a set of listeners taken at one instant.
+ *
+ * Primitive values are kept in primitive arrays, so a snapshot can be refilled without allocating.
+ * Use {@link FrameDispatcher#snapshot(SignalSnapshot)} to fill it consistently while frames are dispatched.
+ */
+public class SignalSnapshot {
+    public enum Kind {NONE, LONG, DOUBLE, OBJECT}
+
+    private final List<CanListener<?>> listeners;
+    private final Kind[] kinds;
+    private final long[] longs;
+    private final double[] doubles;
+    private final Object[] objects;
+
+    /**
+     * Number of frames dispatched when the snapshot was taken
+     */
+    @Getter
+    private long version;
+
+    /**
+     * Time of the snapshot in micros
+     */
+    @Getter
+    private long timestamp;
+
+    public SignalSnapshot(Collection<? extends CanListener<?>> listeners) {
+        this.listeners = new ArrayList<>(listeners);
+        int size = this.listeners.size();
+        kinds = new Kind[size];
+        longs = new long[size];
+        doubles = new double[size];
+        objects = new Object[size];
+    }
+
+    /**
+     * Take a snapshot of listeners not being updated
+     */
+    public static SignalSnapshot of(Collection<? extends CanListener<?>> listeners) {
+        SignalSnapshot snapshot = new SignalSnapshot(listeners);
+        snapshot.capture(0, CanClock.SYSTEM.currentTimeMicros());
+        return snapshot;
+    }
+
+    /**
+     * Copy the current values of the listeners, without any synchronization
+     */
+    public void capture(long version, long timestamp) {
+        capture(0, kinds.length);
+        stamp(version, timestamp);
+    }
+
+    /**
+     * Copy the current values of the listeners in a range, without any synchronization
+     * @param from Index of the first listener
+     * @param to Index after the last listener
+     */
+    public void capture(int from, int to) {
+        for (int i = from; i < to; i++) {
+            listeners.get(i).snapshot(this, i);
+        }
+    }
+
+    /**
+     * Set the version and time of a snapshot captured in parts
+     */
+    public void stamp(long version, long timestamp) {
+        this.version = version;
+        this.timestamp = timestamp;
+    }
+
+    public List<CanListener<?>> getListeners() {
+        return listeners;
+    }
+
+    public int size() {
+        return kinds.length;
+    }
+
+    public String getName(int index) {
+        return listeners.get(index).getName();
+    }
+
+    public Kind getKind(int index) {
+        return kinds[index];
+    }
+
+    public long getLong(int index) {
+        return longs[index];
+    }
+
+    public double getDouble(int index) {
+        return doubles[index];
+    }
+
+    /**
+     * The value as an object, primitive values are boxed
+     */
+    public Object getValue(int index) {
+        switch (kinds[index]) {
+            case LONG: return longs[index];
+            case DOUBLE: return doubles[index];
+            case OBJECT: return objects[index];
+            default: return null;
+        }
+    }
+
+    void setNone(int index) {
+        kinds[index] = Kind.NONE;
+        objects[index] = null;
+    }
+
+    void setLong(int index, long value) {
+        kinds[index] = Kind.LONG;
+        longs[index] = value;
+    }
+
+    void setDouble(int index, double value) {
+        kinds[index] = Kind.DOUBLE;
+        doubles[index] = value;
+    }
+
+    void setObject(int index, Object value) {
+        if (value == null) {
+            setNone(index);
+        } else {
+            kinds[index] = Kind.OBJECT;
+            objects[index] = value;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package dk.lbloft;
+
+import dk.lbloft.capture.CaptureReader;
+import dk.lbloft.sim.CaptureSender;
+import dk.lbloft.sim.FrameGenerator;
+import dk.lbloft.sim.LoadTest;
+import dk.lbloft.sim.SocketcandServer;
+import lombok.extern.java.Log;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+@Log
+@CommandLine.Command(name = "simulate", description = "Run a simulated socketcand bus, or measure the throughput of the receiving pipeline with --test")
+public class Simulate implements Callable<Integer> {
+    @CommandLine.Option(names = {"-p", "--port"}, description = "The port to listen on", defaultValue = "28600")
+    private int port;
+
+    @CommandLine.Option(names = {"-b", "--bus"}, description = "The name of the simulated bus", defaultValue = "can0")
+    private String bus;
+
+    @CommandLine.Option(names = {"--id"}, description = "Frames to generate as ID:RATE[:BURST] with the id in hex and the rate per second, eg. 3D0:100. Can be repeated")
+    private List<String> generated = new ArrayList<>();
+
+    @CommandLine.Option(names = {"--load"}, description = "Bus load in percent to generate, can be above 100", defaultValue = "0")
+    private double load;
+
+    @CommandLine.Option(names = {"--load-ids"}, description = "Number of ids the load is spread over, starting at 0x100", defaultValue = "16")
+    private int loadIds;
+
+    @CommandLine.Option(names = {"--bitrate"}, description = "Bitrate of the simulated bus", defaultValue = "1000000")
+    private int bitrate;
+
+    @CommandLine.Option(names = {"--burst"}, description = "Frames sent back to back for the load", defaultValue = "1")
+    private int burst;
+
+    @CommandLine.Option(names = {"-c", "--capture"}, description = "Capture file to send instead of generated frames")
+    private File capture;
+
+    @CommandLine.Option(names = {"-s", "--speed"}, description = "Replay speed of the capture, 0 is as fast as possible", defaultValue = "1")
+    private double speed;
+
+    @CommandLine.Option(names = {"--duration"}, description = "Seconds to run, 0 to run until stopped. A capture is sent once with 0 and repeated otherwise", defaultValue = "0")
+    private long duration;
+
+    @CommandLine.Option(names = {"--test"}, description = "Receive the generated frames in this process and report throughput and latency")
+    private boolean test;
+
+    @Override
+    public Integer call() throws Exception {
+        try (SocketcandServer server = new SocketcandServer(port, bus).start()) {
+            if (capture != null) {
+                return sendCapture(server);
+            }
+
+            FrameGenerator generator = new FrameGenerator(server);
+            TreeSet<Integer> ids = new TreeSet<>();
+            for (String spec : generated) {
+                String[] parts = spec.split(":");
+                int id = Integer.parseInt(parts[0], 16);
+                generator.add(id, Double.parseDouble(parts[1]), parts.length > 2 ? Integer.parseInt(parts[2]) : 1);
+                ids.add(id);
+            }
+            if (load > 0) {
+                generator.addLoad(0x100, loadIds, load, bitrate, burst);
+                for (int i = 0; i < loadIds; i++) {
+                    ids.add(0x100 + i);
+                }
+            }
+            if (ids.isEmpty()) {
+                /* The ids of the built in signals at 50 frames per second */
+                for (CanListener<?> listener : Main.buildListeners()) {
+                    for (Integer id : listener.getIds()) {
+                        if (ids.add(id)) generator.add(id, 50, 1);
+                    }
+                }
+            }
+
+            if (test) {
+                LoadTest.Report report = new LoadTest(server, generator, bus, ids.toArray(new Integer[0]))
+                        .run(duration > 0 ? duration : 10, TimeUnit.SECONDS);
+                Console.out.ok(report.toString());
+                return report.getDropped() == 0 && report.getReceived() == report.getSent() ? 0 : 1;
+            }
+
+            generator.start();
+            run(() -> String.format("Generated %d frames, sent %d to %d clients",
+                    generator.getGenerated(), server.getSent(), server.getClients()));
+            generator.close();
+        }
+        return 0;
+    }
+
+    private int sendCapture(SocketcandServer server) throws Exception {
+        try (CaptureReader reader = new CaptureReader(capture)) {
+            CaptureSender sender = new CaptureSender(server, reader, speed, duration > 0).start();
+            if (duration > 0) {
+                run(() -> String.format("Sent %d frames from %s", sender.getSent(), capture));
+                sender.close();
+            } else {
+                sender.join();
+            }
+            Console.out.ok(String.format("Sent %d frames from %s", sender.getSent(), capture));
+        }
+        return 0;
+    }
+
+    /**
+     * Log the status every 5 seconds for the duration, or until stopped
+     */
+    private void run(Supplier<String> status) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+        while (duration == 0 || System.nanoTime() - end < 0) {
+            Thread.sleep(duration == 0 ? 5000 : Math.min(5000, Math.max(1, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()))));
+            log.info(status.get());
+        }
+    }
+}
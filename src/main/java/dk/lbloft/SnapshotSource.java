@@ -0,0 +1,14 @@
+package dk.lbloft;
+
+/**
+ * Fills snapshots of listeners being updated by another thread
+ */
+@FunctionalInterface
+public interface SnapshotSource {
+    /**
+     * Fill the snapshot with consistent values of its listeners
+     * @param snapshot The snapshot to fill
+     * @return The snapshot
+     */
+    SignalSnapshot snapshot(SignalSnapshot snapshot);
+}
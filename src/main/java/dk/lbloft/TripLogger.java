@@ -0,0 +1,279 @@
+package dk.lbloft;
+
+import dk.lbloft.capture.CaptureFormat;
+import dk.lbloft.capture.CaptureWriter;
+import dk.lbloft.exporter.Compression;
+import dk.lbloft.exporter.ExportScheduler;
+import dk.lbloft.exporter.FileExporter;
+import dk.lbloft.metrics.Latencies;
+import dk.lbloft.metrics.MetricsServer;
+import dk.lbloft.metrics.MetricsWriter;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Log a trip from one or more buses.
+ *
+ * Every bus is decoded on its own thread by a {@link CanBus}. The exporters see the listeners of
+ * all buses, and the recording holds the frames of all buses merged in time order.
+ * Closing stops the buses first, so everything received is decoded, exported and recorded.
+ */
+@Log
+public class TripLogger implements Closeable {
+    private static final long MB = 1024 * 1024;
+
+    @Getter
+    private final List<CanBus> buses = new ArrayList<>();
+
+    @Getter
+    private final DispatcherGroup dispatchers;
+
+    @Getter
+    private final ExportScheduler scheduler;
+
+    private final Latencies latencies;
+    private final FileExporter tripLog;
+    private final MetricsServer metrics;
+    private final CaptureWriter recorder;
+    private final MergedFrameStream merged;
+
+    private final CountDownLatch stopping = new CountDownLatch(1);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * @param options Connection, decoding and trip log options
+     * @param start Start of the trip, used for the file names
+     * @param queueSize Frames queued between each bus and its listeners
+     * @param overflow What to do when a queue is full
+     */
+    public TripLogger(Main options, Date start, int queueSize, FramePipeline.OverflowPolicy overflow) throws IOException {
+        List<String> names = options.getBuses();
+        if (options.isRecord()) {
+            recorder = new CaptureWriter(options.tripFile(start, CaptureFormat.EXTENSION));
+            merged = new MergedFrameStream(names.size(), CaptureWriter.DEFAULT_RING_SIZE,
+                    MergedFrameStream.DEFAULT_MAX_DELAY_MILLIS, TimeUnit.MILLISECONDS, recorder::record);
+        } else {
+            recorder = null;
+            merged = null;
+        }
+
+        latencies = options.isLatency() ? new Latencies() : null;
+        List<FrameDispatcher> dispatchers = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            CanBus bus = new CanBus(i, options.getHost(), options.getPort(), names.get(i), options.buildListeners(i),
+                    queueSize, overflow, merged != null ? merged.input(i) : null, latencies);
+            bus.getStatistics().setBitrate(options.getBitrate());
+            buses.add(bus);
+            dispatchers.add(bus.getDispatcher());
+        }
+        this.dispatchers = new DispatcherGroup(dispatchers);
+
+        scheduler = new ExportScheduler(this.dispatchers, this.dispatchers.getListeners()).latencies(latencies);
+        tripLog = new FileExporter(options.tripFile(start, ".log"))
+                .fsync(options.getFsync())
+                .rotate(options.getRotateSize() * MB, TimeUnit.MINUTES.toMillis(options.getRotateInterval()));
+        if (options.getCompress() != Compression.NONE || options.getRetain() > 0) {
+            tripLog.archive(options.getCompress(), options.getRetain() * MB);
+        }
+        scheduler.add(tripLog, options.getFileInterval(), 0);
+        this.dispatchers.addChangeListener(scheduler);
+
+        if (options.getMetricsPort() > 0) {
+            metrics = new MetricsServer(options.getMetricsPort(), this.dispatchers, this.dispatchers.getListeners()).add(this::collect);
+        } else {
+            metrics = null;
+        }
+    }
+
+    public TripLogger start() {
+        scheduler.start();
+        if (metrics != null) metrics.start();
+        if (merged != null) merged.start();
+        for (CanBus bus : buses) {
+            bus.start();
+        }
+        return this;
+    }
+
+    /**
+     * Log until the JVM shuts down, then close before it exits
+     * @param statsInterval Seconds between logging the counters, 0 to not log them
+     */
+    public void runUntilStopped(long statsInterval) throws InterruptedException {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "trip-logger-shutdown"));
+        if (statsInterval > 0) {
+            while (!stopping.await(statsInterval, TimeUnit.SECONDS)) {
+                logStats();
+            }
+        } else {
+            stopping.await();
+        }
+        close();
+        logStats();
+        stopped.countDown();
+    }
+
+    /**
+     * Make runUntilStopped close the logger and wait for it, called by the shutdown hook
+     */
+    public void stop() {
+        stopping.countDown();
+        try {
+            stopped.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void logStats() {
+        for (CanBus bus : buses) {
+            log.info(bus.getStats());
+        }
+        if (recorder != null) {
+            log.info(String.format("Recorded %d frames, dropped %d", recorder.getRecorded(),
+                    recorder.getDropped() + merged.getDropped()));
+        }
+        if (latencies != null) {
+            log.info(latencies.report());
+        }
+    }
+
+    /**
+     * Write the counters of the buses, exporters and recording
+     */
+    private void collect(MetricsWriter out) {
+        out.metric("can_frames_received_total", MetricsWriter.Type.COUNTER, "Frames received from the bus");
+        for (CanBus bus : buses) {
+            out.sample("can_frames_received_total", bus.getPipeline().getReceived(), "bus", bus.getName());
+        }
+        out.metric("can_frames_dispatched_total", MetricsWriter.Type.COUNTER, "Frames decoded by the listeners");
+        for (CanBus bus : buses) {
+            out.sample("can_frames_dispatched_total", bus.getDispatcher().getDispatched(), "bus", bus.getName());
+        }
+        out.metric("can_frames_repeated_total", MetricsWriter.Type.COUNTER, "Frames not decoded because they repeated the previous payload of the id");
+        for (CanBus bus : buses) {
+            out.sample("can_frames_repeated_total", bus.getDispatcher().getRepeated(), "bus", bus.getName());
+        }
+        out.metric("can_decode_errors_total", MetricsWriter.Type.COUNTER, "Times a listener failed to decode a frame");
+        for (CanBus bus : buses) {
+            out.sample("can_decode_errors_total", bus.getPipeline().getFailures(), "bus", bus.getName());
+        }
+        out.metric("can_frames_dropped_total", MetricsWriter.Type.COUNTER, "Frames dropped because the queue was full");
+        for (CanBus bus : buses) {
+            out.sample("can_frames_dropped_total", bus.getPipeline().getDropped(), "bus", bus.getName());
+        }
+        out.metric("can_queue_frames", MetricsWriter.Type.GAUGE, "Frames waiting to be decoded");
+        for (CanBus bus : buses) {
+            out.sample("can_queue_frames", bus.getPipeline().size(), "bus", bus.getName());
+        }
+        out.metric("can_bus_load_percent", MetricsWriter.Type.GAUGE, "Estimated load of the bus");
+        for (CanBus bus : buses) {
+            out.sample("can_bus_load_percent", bus.getStatistics().getLoad(), "bus", bus.getName());
+        }
+        collectIds(out);
+        out.metric("can_connects_total", MetricsWriter.Type.COUNTER, "Connections made to the bus");
+        for (CanBus bus : buses) {
+            out.sample("can_connects_total", bus.getSupervisor().getConnects(), "bus", bus.getName());
+        }
+
+        List<ExportScheduler.Entry> entries = scheduler.getEntries();
+        out.metric("can_exports_total", MetricsWriter.Type.COUNTER, "Exports done");
+        for (ExportScheduler.Entry entry : entries) {
+            out.sample("can_exports_total", entry.getExports(), "exporter", entry.getExporter().getClass().getSimpleName());
+        }
+        out.metric("can_export_seconds_total", MetricsWriter.Type.COUNTER, "Time spent exporting");
+        for (ExportScheduler.Entry entry : entries) {
+            out.sample("can_export_seconds_total", entry.getExportNanos() / 1e9, "exporter", entry.getExporter().getClass().getSimpleName());
+        }
+        out.metric("can_export_last_seconds", MetricsWriter.Type.GAUGE, "Time spent by the last export");
+        for (ExportScheduler.Entry entry : entries) {
+            out.sample("can_export_last_seconds", entry.getLastExportNanos() / 1e9, "exporter", entry.getExporter().getClass().getSimpleName());
+        }
+        out.metric("can_writer_queue_buffers", MetricsWriter.Type.GAUGE, "Buffers of the trip log waiting to be written");
+        out.sample("can_writer_queue_buffers", tripLog.getQueued());
+
+        if (recorder != null) {
+            out.metric("can_frames_recorded_total", MetricsWriter.Type.COUNTER, "Frames written to the capture file");
+            out.sample("can_frames_recorded_total", recorder.getRecorded());
+            out.metric("can_frames_recording_dropped_total", MetricsWriter.Type.COUNTER, "Frames dropped by the recording");
+            out.sample("can_frames_recording_dropped_total", recorder.getDropped() + merged.getDropped());
+        }
+        if (latencies != null) {
+            latencies.collect(out);
+        }
+    }
+
+    /**
+     * Write the statistics per id of the buses
+     */
+    private void collectIds(MetricsWriter out) {
+        List<BusStatistics.Snapshot> snapshots = new ArrayList<>();
+        for (CanBus bus : buses) {
+            snapshots.add(bus.getStatistics().snapshot(new BusStatistics.Snapshot()));
+        }
+        out.metric("can_id_frames_total", MetricsWriter.Type.COUNTER, "Frames of an id");
+        for (int b = 0; b < buses.size(); b++) {
+            BusStatistics.Snapshot ids = snapshots.get(b);
+            for (int i = 0; i < ids.size(); i++) {
+                out.sample("can_id_frames_total", ids.getCount(i), "bus", buses.get(b).getName(), "id", ids.formatId(i));
+            }
+        }
+        out.metric("can_id_rate_hertz", MetricsWriter.Type.GAUGE, "Frames per second of an id over the recent frames");
+        for (int b = 0; b < buses.size(); b++) {
+            BusStatistics.Snapshot ids = snapshots.get(b);
+            for (int i = 0; i < ids.size(); i++) {
+                out.sample("can_id_rate_hertz", ids.getRate(i), "bus", buses.get(b).getName(), "id", ids.formatId(i));
+            }
+        }
+        out.metric("can_id_gap_max_seconds", MetricsWriter.Type.GAUGE, "Longest gap between two frames of an id");
+        for (int b = 0; b < buses.size(); b++) {
+            BusStatistics.Snapshot ids = snapshots.get(b);
+            for (int i = 0; i < ids.size(); i++) {
+                out.sample("can_id_gap_max_seconds", ids.getMaxGap(i) / 1e6, "bus", buses.get(b).getName(), "id", ids.formatId(i));
+            }
+        }
+        out.metric("can_id_jitter_seconds", MetricsWriter.Type.GAUGE, "Mean deviation of the recent gaps of an id from their average");
+        for (int b = 0; b < buses.size(); b++) {
+            BusStatistics.Snapshot ids = snapshots.get(b);
+            for (int i = 0; i < ids.size(); i++) {
+                out.sample("can_id_jitter_seconds", ids.getJitter(i) / 1e6, "bus", buses.get(b).getName(), "id", ids.formatId(i));
+            }
+        }
+        out.metric("can_id_gaps_total", MetricsWriter.Type.COUNTER, "Gaps of an id longer than " + BusStatistics.GAP_FACTOR + " times the average gap");
+        for (int b = 0; b < buses.size(); b++) {
+            BusStatistics.Snapshot ids = snapshots.get(b);
+            for (int i = 0; i < ids.size(); i++) {
+                out.sample("can_id_gaps_total", ids.getGaps(i), "bus", buses.get(b).getName(), "id", ids.formatId(i));
+            }
+        }
+        out.metric("can_id_age_seconds", MetricsWriter.Type.GAUGE, "Time since the last frame of an id");
+        for (int b = 0; b < buses.size(); b++) {
+            BusStatistics.Snapshot ids = snapshots.get(b);
+            for (int i = 0; i < ids.size(); i++) {
+                out.sample("can_id_age_seconds", ids.getAge(i) / 1e6, "bus", buses.get(b).getName(), "id", ids.formatId(i));
+            }
+        }
+    }
+
+    /**
+     * Stop the buses and write everything received
+     */
+    @Override
+    public void close() {
+        if (metrics != null) metrics.close();
+        for (CanBus bus : buses) {
+            bus.close();
+        }
+        if (merged != null) merged.close();
+        scheduler.close();
+        if (recorder != null) recorder.close();
+    }
+}
@@ -0,0 +1,86 @@
+package dk.lbloft;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A signal aggregating the values another signal had in the last window of time, eg. the max RPM of the
+ * last second, so exporters sampling the signals see spikes between two samples.
+ *
+ * The value is computed from the {@link RollingWindow} of the input when it is read. It has no ids, so it
+ * is only registered with the dispatcher to get its clock.
+ */
+public class WindowAggregate extends CanListener<Double> {
+    public enum Statistic {
+        MIN("min"), MAX("max"), MEAN("mean"), COUNT("count"), P50("p50"), P95("p95"), P99("p99");
+
+        private final String suffix;
+
+        Statistic(String suffix) {
+            this.suffix = suffix;
+        }
+    }
+
+    private final RollingWindow window;
+    private final Statistic statistic;
+
+    public WindowAggregate(CanListener<?> input, Statistic statistic) {
+        super(input.getName() + " " + statistic.suffix);
+        if (input.getWindow() == null) {
+            throw new IllegalArgumentException(input.getName() + " has no window");
+        }
+        this.window = input.getWindow();
+        this.statistic = statistic;
+    }
+
+    /**
+     * Keep a window of the values of a signal and aggregate them
+     * @param input The signal, its values are kept from now on
+     * @param windowMicros Length of the window in micros
+     * @param statistics The aggregates
+     * @return A signal per aggregate, to register after the input
+     */
+    public static List<WindowAggregate> of(CanListener<?> input, long windowMicros, Collection<Statistic> statistics) {
+        if (input.getWindow() == null || input.getWindow().getWindowMicros() != windowMicros) {
+            input.setWindow(new RollingWindow(windowMicros, RollingWindow.DEFAULT_CAPACITY));
+        }
+        List<WindowAggregate> aggregates = new ArrayList<>();
+        for (Statistic statistic : statistics) {
+            aggregates.add(new WindowAggregate(input, statistic));
+        }
+        return aggregates;
+    }
+
+    public double getDouble() {
+        long now = getClock().currentTimeMicros();
+        switch (statistic) {
+            case MIN: return window.min(now);
+            case MAX: return window.max(now);
+            case MEAN: return window.mean(now);
+            case COUNT: return window.count(now);
+            case P50: return window.percentile(now, 50);
+            case P95: return window.percentile(now, 95);
+            case P99: return window.percentile(now, 99);
+            default: throw new IllegalStateException("Unknown statistic " + statistic);
+        }
+    }
+
+    @Override
+    public Double getValue() {
+        double value = getDouble();
+        return Double.isNaN(value) ? null : value;
+    }
+
+    @Override
+    void snapshot(SignalSnapshot snapshot, int index) {
+        double value = getDouble();
+        if (Double.isNaN(value)) {
+            snapshot.setNone(index);
+        } else if (statistic == Statistic.COUNT) {
+            snapshot.setLong(index, (long) value);
+        } else {
+            snapshot.setDouble(index, value);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package dk.lbloft.analysis;
+
+import dk.lbloft.CanListener;
+import dk.lbloft.ChangeListener;
+import dk.lbloft.FrameDispatcher;
+import dk.lbloft.capture.CaptureReader;
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Summarize many captures in parallel on a {@link ForkJoinPool}.
+ *
+ * Every capture is a trip. Captures larger than a segment are split in halves until the parts fit a
+ * segment, and each part is decoded by its own listeners, as the listeners keep state between frames.
+ * The summaries of the parts are joined in the order of the frames.
+ */
+@Log
+public class TripAnalyzer {
+    public static final int DEFAULT_SEGMENT_RECORDS = 1 << 20;
+
+    private final Supplier<List<CanListener<?>>> listeners;
+    private final long segmentRecords;
+
+    /**
+     * @param listeners Creates a new set of listeners for every segment
+     * @param segmentRecords Max number of frames decoded as one task
+     */
+    public TripAnalyzer(Supplier<List<CanListener<?>>> listeners, long segmentRecords) {
+        this.listeners = listeners;
+        this.segmentRecords = segmentRecords;
+    }
+
+    /**
+     * Summarize captures, captures that can't be read are logged and left out
+     * @return A summary per capture in the order of the files
+     */
+    public List<TripSummary> analyze(ForkJoinPool pool, Collection<File> captures) {
+        return pool.invoke(new RecursiveTask<List<TripSummary>>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected List<TripSummary> compute() {
+                List<CaptureTask> tasks = new ArrayList<>();
+                for (File capture : captures) {
+                    tasks.add(new CaptureTask(capture));
+                }
+                ForkJoinTask.invokeAll(tasks);
+                List<TripSummary> summaries = new ArrayList<>();
+                for (CaptureTask task : tasks) {
+                    if (task.getRawResult() != null) summaries.add(task.getRawResult());
+                }
+                return summaries;
+            }
+        });
+    }
+
+    /**
+     * Summarize the frames of a capture in a range
+     * @param from Index of the first frame
+     * @param to Index after the last frame
+     */
+    public TripSummary summarize(CaptureReader reader, String name, long from, long to) {
+        SegmentDecoder decoder = new SegmentDecoder(new TripSummary(name), listeners.get());
+        CaptureReader.Cursor cursor = reader.cursor();
+        for (boolean more = cursor.seek(from); more && cursor.index() < to; more = cursor.next()) {
+            /* The signals of the summary are on the first bus */
+            if (cursor.bus() != 0) continue;
+            decoder.frame(cursor.timestamp(), cursor.id(), cursor.extended(), cursor.data(), cursor.length());
+        }
+        return decoder.finish();
+    }
+
+    private class CaptureTask extends RecursiveTask<TripSummary> {
+        private static final long serialVersionUID = 1L;
+
+        private final File capture;
+
+        CaptureTask(File capture) {
+            this.capture = capture;
+        }
+
+        @Override
+        protected TripSummary compute() {
+            try (CaptureReader reader = new CaptureReader(capture)) {
+                return new SegmentTask(reader, capture.getName(), 0, reader.size()).compute();
+            } catch (IOException | UncheckedIOException e) {
+                log.log(Level.WARNING, "Unable to analyze " + capture, e);
+                return null;
+            }
+        }
+    }
+
+    private class SegmentTask extends RecursiveTask<TripSummary> {
+        private static final long serialVersionUID = 1L;
+
+        private final CaptureReader reader;
+        private final String name;
+        private final long from;
+        private final long to;
+
+        SegmentTask(CaptureReader reader, String name, long from, long to) {
+            this.reader = reader;
+            this.name = name;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TripSummary compute() {
+            if (to - from <= segmentRecords) {
+                return summarize(reader, name, from, to);
+            }
+            long middle = from + (to - from) / 2;
+            SegmentTask first = new SegmentTask(reader, name, from, middle);
+            first.fork();
+            TripSummary second = new SegmentTask(reader, name, middle, to).compute();
+            return first.join().append(second);
+        }
+    }
+
+    /**
+     * Feeds frames to a set of listeners and follows the signals of the summary
+     */
+    private static class SegmentDecoder implements ChangeListener {
+        private final TripSummary summary;
+        private final FrameDispatcher dispatcher = new FrameDispatcher();
+        private final CanListener<?> trip;
+        private final CanListener<?> rpm;
+        private final CanListener<?> fuelUsed;
+        private final CanListener<?> limiter;
+
+        private long timestamp;
+        private long limiterOn = -1;
+
+        SegmentDecoder(TripSummary summary, List<CanListener<?>> listeners) {
+            this.summary = summary;
+            for (CanListener<?> listener : listeners) {
+                dispatcher.add(listener);
+            }
+            trip = find(listeners, "Trip");
+            rpm = find(listeners, "RPM");
+            fuelUsed = find(listeners, "Fuel Used");
+            limiter = find(listeners, "Speed Limiter Status");
+            dispatcher.addChangeListener(this);
+        }
+
+        void frame(long timestamp, int id, boolean extended, byte[] data, int length) {
+            this.timestamp = timestamp;
+            summary.frame(timestamp);
+            dispatcher.dispatch(timestamp, id, extended, data, 0, length);
+        }
+
+        @Override
+        public void changed(CanListener<?> listener) {
+            if (listener == trip) {
+                summary.trip(((Number) trip.getValue()).longValue());
+            } else if (listener == rpm) {
+                summary.rpm(((Number) rpm.getValue()).intValue());
+            } else if (listener == limiter) {
+                boolean on = "On".equals(limiter.getValue());
+                if (on && limiterOn < 0) {
+                    limiterOn = timestamp;
+                } else if (!on && limiterOn >= 0) {
+                    summary.limiter(timestamp - limiterOn);
+                    limiterOn = -1;
+                }
+            }
+        }
+
+        TripSummary finish() {
+            if (limiterOn >= 0) {
+                summary.limiter(timestamp - limiterOn);
+            }
+            if (fuelUsed != null && fuelUsed.getValue() instanceof Number) {
+                summary.fuelUsed(((Number) fuelUsed.getValue()).doubleValue());
+            }
+            return summary;
+        }
+
+        private static CanListener<?> find(List<CanListener<?>> listeners, String name) {
+            for (CanListener<?> listener : listeners) {
+                if (listener.getName().equals(name)) return listener;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package dk.lbloft.analysis;
+
+import lombok.Getter;
+
+import java.util.Collection;
+
+/**
+ * Summary of a trip, or of a part of a trip decoded on its own.
+ *
+ * Summaries of consecutive parts of a trip are joined with {@link #append(TripSummary)}, the distance
+ * between the parts is taken from the trip counter, so it is exact. The fuel and speed limiter time of the
+ * frames between two parts are not counted, which is a single frame interval per part.
+ */
+@Getter
+public class TripSummary {
+    private final String name;
+    private long frames;
+    /* Frame timestamps in micros */
+    private long start = Long.MAX_VALUE;
+    private long end = Long.MIN_VALUE;
+    /* First and last value of the trip counter, -1 if not seen */
+    private long firstTrip = -1;
+    private long lastTrip = -1;
+    private long distance;
+    private double fuelUsed;
+    private int maxRpm;
+    private long limiterMicros;
+    private int trips = 1;
+    /* Sum of the durations of the trips of a total, -1 for a single trip */
+    private long totalDuration = -1;
+
+    public TripSummary(String name) {
+        this.name = name;
+    }
+
+    void frame(long timestamp) {
+        frames++;
+        start = Math.min(start, timestamp);
+        end = Math.max(end, timestamp);
+    }
+
+    void trip(long counter) {
+        if (firstTrip < 0) {
+            firstTrip = counter;
+        } else {
+            distance += delta(lastTrip, counter);
+        }
+        lastTrip = counter;
+    }
+
+    /**
+     * Distance between two values of the trip counter, only the low 16 bits count, like the "Distance"
+     * signal, and they may wrap around
+     */
+    private static long delta(long from, long to) {
+        return (to - from) & 0xFFFF;
+    }
+
+    void fuelUsed(double liters) {
+        fuelUsed += liters;
+    }
+
+    void rpm(int rpm) {
+        maxRpm = Math.max(maxRpm, rpm);
+    }
+
+    void limiter(long micros) {
+        limiterMicros += micros;
+    }
+
+    /**
+     * Add the summary of the following part of the same trip
+     * @return This summary
+     */
+    public TripSummary append(TripSummary later) {
+        if (later.firstTrip >= 0) {
+            if (firstTrip >= 0) {
+                distance += delta(lastTrip, later.firstTrip);
+            } else {
+                firstTrip = later.firstTrip;
+            }
+            lastTrip = later.lastTrip;
+        }
+        distance += later.distance;
+        frames += later.frames;
+        start = Math.min(start, later.start);
+        end = Math.max(end, later.end);
+        fuelUsed += later.fuelUsed;
+        maxRpm = Math.max(maxRpm, later.maxRpm);
+        limiterMicros += later.limiterMicros;
+        return this;
+    }
+
+    /**
+     * Sum up separate trips
+     */
+    public static TripSummary total(String name, Collection<TripSummary> summaries) {
+        TripSummary total = new TripSummary(name);
+        total.trips = 0;
+        total.totalDuration = 0;
+        for (TripSummary summary : summaries) {
+            total.frames += summary.frames;
+            total.start = Math.min(total.start, summary.start);
+            total.end = Math.max(total.end, summary.end);
+            total.distance += summary.distance;
+            total.fuelUsed += summary.fuelUsed;
+            total.maxRpm = Math.max(total.maxRpm, summary.maxRpm);
+            total.limiterMicros += summary.limiterMicros;
+            total.trips += summary.trips;
+            total.totalDuration += summary.getDuration();
+        }
+        return total;
+    }
+
+    /**
+     * Time between the first and the last frame in micros, for a total the sum of the trips
+     */
+    public long getDuration() {
+        if (totalDuration >= 0) return totalDuration;
+        return frames == 0 ? 0 : end - start;
+    }
+}
@@ -0,0 +1,43 @@
+package dk.lbloft.capture;
+
+/**
+ * Layout of a raw frame capture file.
+ *
+ * The file starts with a header followed by fixed size records, so record n
+ * is found at {@code HEADER_SIZE + n * RECORD_SIZE}. All values are big endian.
+ *
+ * <pre>
+ * Header (16 bytes)
+ *   int   magic         "KCAP"
+ *   short version
+ *   short record size
+ *   long  start time    millis since epoch
+ *
+ * Record (24 bytes)
+ *   long  timestamp     micros
+ *   int   id            bit 31 set for extended ids
+ *   byte  length        number of data bytes (0-8)
+ *   byte  bus           index of the bus the frame was received on
+ *   short reserved
+ *   byte[8] data        zero padded
+ * </pre>
+ */
+public final class CaptureFormat {
+    public static final int MAGIC = 0x4B434150;
+    public static final short VERSION = 1;
+
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 24;
+
+    public static final int OFFSET_TIMESTAMP = 0;
+    public static final int OFFSET_ID = 8;
+    public static final int OFFSET_LENGTH = 12;
+    public static final int OFFSET_BUS = 13;
+    public static final int OFFSET_DATA = 16;
+
+    public static final int EXTENDED_FLAG = 0x80000000;
+
+    public static final String EXTENSION = ".can";
+
+    private CaptureFormat() {}
+}
@@ -0,0 +1,267 @@
+package dk.lbloft.capture;
+
+import dk.lbloft.FrameRing;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Level;
+
+import static dk.lbloft.capture.CaptureFormat.*;
+
+/**
+ * Sparse index of a capture, the time range and the ids of every block of records.
+ *
+ * A query only reads the blocks overlapping the time range and holding one of the ids, and the records
+ * are fixed size, so the block of a record is known from its index. The index is kept in a sidecar file
+ * next to the capture, written a block at a time while recording.
+ *
+ * <pre>
+ * Header (12 bytes)
+ *   int   magic         "KIDX"
+ *   short version
+ *   short reserved
+ *   int   block records
+ *
+ * Block
+ *   long  min timestamp micros
+ *   long  max timestamp micros
+ *   int   records
+ *   short number of ids
+ *   int[] ids           sorted, with the extended flag
+ * </pre>
+ */
+@Log
+public class CaptureIndex implements CaptureIndexer.Sink {
+    public static final int MAGIC = 0x4B494458;
+    public static final short VERSION = 1;
+    public static final int DEFAULT_BLOCK_RECORDS = 4096;
+    public static final String EXTENSION = ".idx";
+
+    @Getter
+    private final int blockRecords;
+
+    private long[] minTimestamps = new long[64];
+    private long[] maxTimestamps = new long[64];
+    private int[] records = new int[64];
+    private int[][] ids = new int[64][];
+    private int blocks;
+
+    public CaptureIndex(int blockRecords) {
+        this.blockRecords = blockRecords;
+    }
+
+    /**
+     * The sidecar file of a capture
+     */
+    public static File indexFile(File capture) {
+        return new File(capture.getPath() + EXTENSION);
+    }
+
+    /**
+     * Load the index of a capture, records not in the sidecar, or all records if it is missing, are indexed
+     * by reading them
+     */
+    public static CaptureIndex load(CaptureReader reader) throws IOException {
+        File file = indexFile(reader.getFile());
+        CaptureIndex index = null;
+        if (file.exists()) {
+            try {
+                index = read(file);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Ignoring the index " + file, e);
+            }
+        }
+        if (index == null) {
+            index = new CaptureIndex(DEFAULT_BLOCK_RECORDS);
+        }
+        index.complete(reader);
+        return index;
+    }
+
+    /**
+     * Read a sidecar file, a block cut short by a crash is skipped
+     */
+    public static CaptureIndex read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a capture index");
+            }
+            short version = in.readShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported index version " + version + " in " + file);
+            }
+            in.readShort();
+            CaptureIndex index = new CaptureIndex(in.readInt());
+            try {
+                while (true) {
+                    long min = in.readLong();
+                    long max = in.readLong();
+                    int records = in.readInt();
+                    int[] ids = new int[in.readShort() & 0xFFFF];
+                    for (int i = 0; i < ids.length; i++) {
+                        ids[i] = in.readInt();
+                    }
+                    index.block(min, max, records, ids);
+                }
+            } catch (EOFException e) {
+                /* End of the index */
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Index the records of the capture after the complete blocks of the index
+     */
+    void complete(CaptureReader reader) {
+        /* Only the last block may be partial, and it may have grown since */
+        if (blocks > 0 && records[blocks - 1] < blockRecords) {
+            blocks--;
+        }
+        while (blocks > 0 && first(blocks - 1) + records[blocks - 1] > reader.size()) {
+            blocks--;
+        }
+        CaptureIndexer indexer = new CaptureIndexer(blockRecords, this);
+        CaptureReader.Cursor cursor = reader.cursor();
+        for (boolean more = cursor.seek(first(blocks)); more; more = cursor.next()) {
+            indexer.add(cursor.timestamp(), cursor.extended() ? cursor.id() | EXTENDED_FLAG : cursor.id());
+        }
+        indexer.flush();
+    }
+
+    @Override
+    public void block(long minTimestamp, long maxTimestamp, int records, int[] ids) {
+        if (blocks == this.records.length) {
+            int size = blocks * 2;
+            minTimestamps = Arrays.copyOf(minTimestamps, size);
+            maxTimestamps = Arrays.copyOf(maxTimestamps, size);
+            this.records = Arrays.copyOf(this.records, size);
+            this.ids = Arrays.copyOf(this.ids, size);
+        }
+        minTimestamps[blocks] = minTimestamp;
+        maxTimestamps[blocks] = maxTimestamp;
+        this.records[blocks] = records;
+        this.ids[blocks] = ids;
+        blocks++;
+    }
+
+    public int getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Index of the first record of a block
+     */
+    public long first(int block) {
+        return (long) block * blockRecords;
+    }
+
+    /**
+     * @return True if the block may hold records in the time range with one of the ids
+     * @param from First timestamp in micros
+     * @param to Last timestamp in micros
+     * @param ids Sorted ids with the extended flag, null for any id
+     */
+    public boolean matches(int block, long from, long to, int[] ids) {
+        if (maxTimestamps[block] < from || minTimestamps[block] > to) return false;
+        if (ids == null) return true;
+        for (int id : ids) {
+            if (Arrays.binarySearch(this.ids[block], id) >= 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Hand the records in a time range with one of the ids to a consumer, reading only the matching blocks
+     * @param reader The indexed capture
+     * @param from First timestamp in micros
+     * @param to Last timestamp in micros
+     * @param ids Ids with the extended flag, null for any id
+     * @param consumer Receives the records in the order of the capture
+     * @return Number of records handed to the consumer
+     */
+    public long select(CaptureReader reader, long from, long to, int[] ids, FrameRing.Consumer consumer) {
+        int[] sorted = ids == null ? null : sorted(ids);
+        CaptureReader.Cursor cursor = reader.cursor();
+        long selected = 0;
+        for (int block = 0; block < blocks; block++) {
+            if (!matches(block, from, to, sorted)) continue;
+            long end = first(block) + records[block];
+            for (boolean more = cursor.seek(first(block)); more && cursor.index() < end; more = cursor.next()) {
+                long timestamp = cursor.timestamp();
+                if (timestamp < from || timestamp > to) continue;
+                int id = cursor.extended() ? cursor.id() | EXTENDED_FLAG : cursor.id();
+                if (sorted != null && Arrays.binarySearch(sorted, id) < 0) continue;
+                consumer.frame(cursor.bus(), timestamp, cursor.id(), cursor.extended(), cursor.data(), 0, cursor.length());
+                selected++;
+            }
+        }
+        return selected;
+    }
+
+    private static int[] sorted(int[] ids) {
+        int[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Writes the blocks to a sidecar file as they are completed
+     */
+    public static class Writer implements CaptureIndexer.Sink, Closeable {
+        private final File file;
+        private DataOutputStream out;
+
+        public Writer(File file, int blockRecords) throws IOException {
+            this.file = file;
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeInt(blockRecords);
+            out.flush();
+        }
+
+        @Override
+        public void block(long minTimestamp, long maxTimestamp, int records, int[] ids) {
+            if (out == null) return;
+            try {
+                out.writeLong(minTimestamp);
+                out.writeLong(maxTimestamp);
+                out.writeInt(records);
+                out.writeShort(ids.length);
+                for (int id : ids) {
+                    out.writeInt(id);
+                }
+                /* Complete blocks survive a crash */
+                out.flush();
+            } catch (IOException e) {
+                /* The capture is more important, it can be indexed again when it is read */
+                log.log(Level.WARNING, "Stopped writing the index " + file, e);
+                close();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (out == null) return;
+            try {
+                out.close();
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Unable to close " + file, e);
+            }
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package dk.lbloft.capture;
+
+import java.util.Arrays;
+
+/**
+ * Collect the time range and ids of every block of consecutive records of a capture.
+ *
+ * Used by the {@link CaptureWriter} while recording and to index a capture afterwards.
+ * Ids are collected in a bitmap for standard ids and a small list for extended ids, so adding a
+ * record doesn't allocate.
+ */
+public class CaptureIndexer {
+    /**
+     * Receives the blocks as they are completed
+     */
+    public interface Sink {
+        /**
+         * @param minTimestamp First timestamp in the block in micros
+         * @param maxTimestamp Last timestamp in the block in micros
+         * @param records Number of records in the block
+         * @param ids Sorted ids of the records in the block, with the extended flag of the capture
+         */
+        void block(long minTimestamp, long maxTimestamp, int records, int[] ids);
+    }
+
+    private static final int STANDARD_IDS = 0x800;
+
+    private final int blockRecords;
+    private final Sink sink;
+    private final long[] standard = new long[STANDARD_IDS / 64];
+    private int[] extended = new int[16];
+    private int extendedCount;
+    private int standardCount;
+    private long minTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+    private int records;
+
+    /**
+     * @param blockRecords Number of records in a block
+     * @param sink Receives the completed blocks
+     */
+    public CaptureIndexer(int blockRecords, Sink sink) {
+        this.blockRecords = blockRecords;
+        this.sink = sink;
+    }
+
+    /**
+     * Add the next record
+     * @param timestamp Timestamp in micros
+     * @param id Id with the extended flag of the capture
+     */
+    public void add(long timestamp, int id) {
+        minTimestamp = Math.min(minTimestamp, timestamp);
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+        if (id >= 0 && id < STANDARD_IDS) {
+            long bit = 1L << id;
+            if ((standard[id >>> 6] & bit) == 0) {
+                standard[id >>> 6] |= bit;
+                standardCount++;
+            }
+        } else if (!containsExtended(id)) {
+            if (extendedCount == extended.length) {
+                extended = Arrays.copyOf(extended, extendedCount * 2);
+            }
+            extended[extendedCount++] = id;
+        }
+        if (++records == blockRecords) {
+            flush();
+        }
+    }
+
+    /**
+     * Hand the records added since the last block to the sink as a block, eg. the last block of a capture
+     */
+    public void flush() {
+        if (records == 0) return;
+        int[] ids = new int[standardCount + extendedCount];
+        int n = 0;
+        for (int word = 0; word < standard.length; word++) {
+            for (long bits = standard[word]; bits != 0; bits &= bits - 1) {
+                ids[n++] = word * 64 + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        System.arraycopy(extended, 0, ids, n, extendedCount);
+        Arrays.sort(ids);
+        sink.block(minTimestamp, maxTimestamp, records, ids);
+
+        Arrays.fill(standard, 0);
+        standardCount = 0;
+        extendedCount = 0;
+        minTimestamp = Long.MAX_VALUE;
+        maxTimestamp = Long.MIN_VALUE;
+        records = 0;
+    }
+
+    private boolean containsExtended(int id) {
+        for (int i = 0; i < extendedCount; i++) {
+            if (extended[i] == id) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,145 @@
+package dk.lbloft.capture;
+
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import static dk.lbloft.capture.CaptureFormat.*;
+
+/**
+ * Read a capture file written by {@link CaptureWriter}.
+ * The file is memory mapped in chunks, so captures larger than 2GB can be read.
+ * A capture that wasn't closed, eg. after a power loss, ends with the zero filled rest of a segment,
+ * the frames end at the last record with a timestamp.
+ */
+public class CaptureReader implements Closeable {
+    private static final int CHUNK_RECORDS = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+
+    @Getter
+    private final File file;
+
+    @Getter
+    private final long startTime;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final long size;
+
+    public CaptureReader(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getInt() != MAGIC) {
+            throw new IOException(file + " is not a capture file");
+        }
+        short version = header.getShort();
+        short recordSize = header.getShort();
+        if (version != VERSION || recordSize != RECORD_SIZE) {
+            throw new IOException(String.format("Unsupported capture version %d with record size %d in %s", version, recordSize, file));
+        }
+        startTime = header.getLong();
+
+        long records = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+        chunks = new MappedByteBuffer[(int) ((records + CHUNK_RECORDS - 1) / CHUNK_RECORDS)];
+        for (int i = 0; i < chunks.length; i++) {
+            long first = (long) i * CHUNK_RECORDS;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * RECORD_SIZE,
+                    Math.min(CHUNK_RECORDS, records - first) * RECORD_SIZE);
+        }
+        /* Skip the unwritten tail, the timestamps of frames are never 0 */
+        while (records > 0 && chunks[(int) ((records - 1) / CHUNK_RECORDS)]
+                .getLong((int) ((records - 1) % CHUNK_RECORDS) * RECORD_SIZE + OFFSET_TIMESTAMP) == 0) {
+            records--;
+        }
+        size = records;
+    }
+
+    /**
+     * Number of frames in the capture
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Create a cursor positioned before the first frame
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Moves through the frames of the capture without allocating,
+     * the accessors return the values of the current frame
+     */
+    public class Cursor {
+        private final byte[] data = new byte[8];
+        private long index = -1;
+        private MappedByteBuffer chunk;
+        private int pos;
+
+        public boolean next() {
+            return seek(index + 1);
+        }
+
+        /**
+         * Move to a frame
+         * @param index Index of the frame
+         * @return False if there is no frame at the index
+         */
+        public boolean seek(long index) {
+            this.index = index;
+            if (index < 0 || index >= size) {
+                return false;
+            }
+            chunk = chunks[(int) (index / CHUNK_RECORDS)];
+            pos = (int) (index % CHUNK_RECORDS) * RECORD_SIZE;
+            return true;
+        }
+
+        public long index() {
+            return index;
+        }
+
+        public long timestamp() {
+            return chunk.getLong(pos + OFFSET_TIMESTAMP);
+        }
+
+        public int id() {
+            return chunk.getInt(pos + OFFSET_ID) & ~EXTENDED_FLAG;
+        }
+
+        public boolean extended() {
+            return (chunk.getInt(pos + OFFSET_ID) & EXTENDED_FLAG) != 0;
+        }
+
+        public int length() {
+            return chunk.get(pos + OFFSET_LENGTH);
+        }
+
+        public int bus() {
+            return chunk.get(pos + OFFSET_BUS) & 0xFF;
+        }
+
+        /**
+         * The data of the current frame, the array is reused by the next call
+         */
+        public byte[] data() {
+            for (int i = 0; i < data.length; i++) {
+                data[i] = chunk.get(pos + OFFSET_DATA + i);
+            }
+            return data;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package dk.lbloft.capture;
+
+import com.github.kayak.core.Frame;
+import com.github.kayak.core.FrameListener;
+import dk.lbloft.FrameRing;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+import static dk.lbloft.capture.CaptureFormat.*;
+
+/**
+ * Flight recorder writing every received frame to a capture file.
+ *
+ * Frames are put on a {@link FrameRing} by the delivery thread and written by a
+ * background thread into memory mapped segments of the file, one segment at a time.
+ * The delivery thread never waits for the disk, if the writer falls behind frames are dropped and counted.
+ * A segment is unmapped when the next one is mapped, so a long recording doesn't run out of address space
+ * on a 32 bit system. If the writer is not closed, the file ends with the zero filled rest of the last segment,
+ * which {@link CaptureReader} skips.
+ * The writer also keeps the {@link CaptureIndex} of the capture in a sidecar file.
+ */
+@Log
+public class CaptureWriter implements FrameListener, Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_RING_SIZE = 64 * 1024;
+
+    private static final int BATCH = 1024;
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Getter
+    private final File file;
+
+    private final int segmentSize;
+    private final FrameRing ring;
+    private final FileChannel channel;
+    private final Thread writer;
+    private final FrameRing.Consumer consumer = this::append;
+    private final CaptureIndex.Writer indexWriter;
+    private final CaptureIndexer indexer;
+
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private volatile byte bus;
+
+    private volatile boolean running = true;
+    private volatile long recorded;
+
+    public CaptureWriter(File file) throws IOException {
+        this(file, DEFAULT_SEGMENT_SIZE, DEFAULT_RING_SIZE);
+    }
+
+    public CaptureWriter(File file, int segmentSize, int ringSize) throws IOException {
+        this.file = file;
+        this.segmentSize = segmentSize - segmentSize % RECORD_SIZE + HEADER_SIZE;
+        this.ring = new FrameRing(ringSize);
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        map(0);
+        segment.putInt(MAGIC);
+        segment.putShort(VERSION);
+        segment.putShort((short) RECORD_SIZE);
+        segment.putLong(System.currentTimeMillis());
+
+        indexWriter = new CaptureIndex.Writer(CaptureIndex.indexFile(file), CaptureIndex.DEFAULT_BLOCK_RECORDS);
+        indexer = new CaptureIndexer(CaptureIndex.DEFAULT_BLOCK_RECORDS, indexWriter);
+
+        writer = new Thread(this::write, "capture-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void newFrame(Frame frame) {
+        byte[] data = frame.getData();
+        ring.offer(bus, frame.getTimestamp(), frame.getIdentifier(), frame.isExtended(), data, data.length);
+    }
+
+    /**
+     * Record a frame without a Frame object, called by a single producer thread
+     * @return False if the frame was dropped
+     */
+    public boolean record(long timestamp, int id, boolean extended, byte[] data, int length) {
+        return ring.offer(bus, timestamp, id, extended, data, length);
+    }
+
+    /**
+     * Record a frame received on the bus with the index, called by a single producer thread
+     * @return False if the frame was dropped
+     */
+    public boolean record(int bus, long timestamp, int id, boolean extended, byte[] data, int offset, int length) {
+        return ring.offer(bus, timestamp, id, extended, data, offset, length);
+    }
+
+    /**
+     * Index written into the bus field of frames recorded without one
+     */
+    public void setBus(int bus) {
+        this.bus = (byte) bus;
+    }
+
+    /**
+     * Number of frames written to the file
+     */
+    public long getRecorded() {
+        return recorded;
+    }
+
+    /**
+     * Number of frames dropped because the writer couldn't keep up
+     */
+    public long getDropped() {
+        return ring.getDropped();
+    }
+
+    private void write() {
+        try {
+            while (running || !ring.isEmpty()) {
+                if (ring.drain(consumer, BATCH) == 0) {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+            }
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Stopped recording to " + file, e);
+        }
+    }
+
+    private void append(int bus, long timestamp, int id, boolean extended, byte[] data, int offset, int length) {
+        if (segment.remaining() < RECORD_SIZE) {
+            map(segmentStart + segment.position());
+        }
+        int pos = segment.position();
+        int flaggedId = extended ? id | EXTENDED_FLAG : id;
+        segment.putLong(pos + OFFSET_TIMESTAMP, timestamp);
+        segment.putInt(pos + OFFSET_ID, flaggedId);
+        segment.put(pos + OFFSET_LENGTH, (byte) length);
+        segment.put(pos + OFFSET_BUS, (byte) bus);
+        for (int i = 0; i < 8; i++) {
+            segment.put(pos + OFFSET_DATA + i, i < length ? data[offset + i] : 0);
+        }
+        segment.position(pos + RECORD_SIZE);
+        indexer.add(timestamp, flaggedId);
+        recorded++;
+    }
+
+    private void map(long position) {
+        try {
+            if (segment != null) unmap(segment);
+            segmentStart = position;
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, position, segmentSize);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to map " + file + " at " + position, e);
+        }
+    }
+
+    /**
+     * Release the mapping of a segment now instead of when it is garbage collected, the segment must not be
+     * used after this. The cleaner is only reachable by reflection, if that fails it is left to the collector.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                /* Java 8 */
+                Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object clean = cleaner.invoke(buffer);
+                clean.getClass().getMethod("clean").invoke(clean);
+                return;
+            }
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (Exception e) {
+            log.log(Level.FINE, "Unable to unmap a segment of the capture", e);
+        }
+    }
+
+    /**
+     * Write the remaining frames and cut the file to the recorded size
+     */
+    @Override
+    public void close() {
+        if (!running) return;
+        running = false;
+        try {
+            writer.join();
+            segment.force();
+            long size = segmentStart + segment.position();
+            unmap(segment);
+            channel.truncate(size);
+            channel.close();
+            indexer.flush();
+            indexWriter.close();
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Unable to close " + file, e);
+        }
+        log.info(String.format("Recorded %d frames to %s, dropped %d", recorded, file, getDropped()));
+    }
+}
@@ -0,0 +1,60 @@
+package dk.lbloft.dbc;
+
+import dk.lbloft.DoubleCanListener;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Listener decoding a signal from a DBC file
+ */
+public class DbcCanListener extends DoubleCanListener {
+    @Getter
+    private final DbcSignal signal;
+
+    private final SignalDecoder decoder;
+    private final SignalDecoder multiplexor;
+    private final int multiplexValue;
+
+    public DbcCanListener(DbcSignal signal) {
+        this(signal, null);
+    }
+
+    /**
+     * @param signal The signal to decode
+     * @param multiplexor The multiplexor of the message if the signal is multiplexed
+     */
+    public DbcCanListener(DbcSignal signal, DbcSignal multiplexor) {
+        super(signal.getName(), signal.getMessageId());
+        setExtended(signal.isExtended());
+        this.signal = signal;
+        this.decoder = new SignalDecoder(signal);
+        this.multiplexor = multiplexor == null || signal.getMultiplexValue() < 0 ? null : new SignalDecoder(multiplexor);
+        this.multiplexValue = signal.getMultiplexValue();
+    }
+
+    @Override
+    public double handleDouble(int id, ByteBuffer data) {
+        long payload = payload(data);
+        if (multiplexor != null && multiplexor.raw(payload) != multiplexValue) {
+            /* The frame doesn't carry this signal */
+            return hasValue() ? getDouble() : Double.NaN;
+        }
+        return decoder.value(payload);
+    }
+
+    /**
+     * The first 8 bytes of the data as a big endian long, zero padded
+     */
+    static long payload(ByteBuffer data) {
+        int length = data.limit();
+        if (length >= 8) {
+            return data.getLong(0);
+        }
+        long payload = 0;
+        for (int i = 0; i < 8; i++) {
+            payload = payload << 8 | (i < length ? data.get(i) & 0xFF : 0);
+        }
+        return payload;
+    }
+}
@@ -0,0 +1,123 @@
+package dk.lbloft.dbc;
+
+import lombok.extern.java.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Read the messages and signals of a DBC file and compile them into listeners.
+ * Everything but the BO_ and SG_ lines is ignored.
+ */
+@Log
+public class DbcParser {
+    private static final Pattern MESSAGE = Pattern.compile("^BO_\\s+(\\d+)\\s+(\\w+)\\s*:.*");
+    private static final Pattern SIGNAL = Pattern.compile(
+            "^\\s*SG_\\s+(\\w+)\\s*(M|m\\d+)?\\s*:\\s*(\\d+)\\|(\\d+)@([01])([+-])\\s*" +
+            "\\(\\s*([^,\\s]+)\\s*,\\s*([^)\\s]+)\\s*\\)\\s*\\[[^]]*]\\s*\"([^\"]*)\".*");
+
+    private static final long EXTENDED_FLAG = 0x80000000L;
+
+    private DbcParser() {}
+
+    public static List<DbcSignal> parse(File file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.ISO_8859_1)) {
+            return parse(reader);
+        }
+    }
+
+    public static List<DbcSignal> parse(Reader reader) throws IOException {
+        List<DbcSignal> signals = new ArrayList<>();
+        BufferedReader lines = new BufferedReader(reader);
+        int messageId = -1;
+        boolean extended = false;
+        String messageName = null;
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            if (line.startsWith("BO_ ")) {
+                Matcher m = MESSAGE.matcher(line);
+                if (!m.matches()) {
+                    throw new IOException("Invalid message in line " + lineNumber + ": " + line);
+                }
+                /* Extended ids are marked with the msb, also below 0x800 */
+                long id = Long.parseLong(m.group(1));
+                messageId = (int) (id & ~EXTENDED_FLAG);
+                extended = (id & EXTENDED_FLAG) != 0 || messageId > 0x7FF;
+                messageName = m.group(2);
+            } else if (line.trim().startsWith("SG_ ")) {
+                Matcher m = SIGNAL.matcher(line);
+                if (!m.matches() || messageId < 0) {
+                    throw new IOException("Invalid signal in line " + lineNumber + ": " + line);
+                }
+                String mux = m.group(2);
+                signals.add(new DbcSignal(
+                        messageId,
+                        extended,
+                        messageName,
+                        m.group(1),
+                        Integer.parseInt(m.group(3)),
+                        Integer.parseInt(m.group(4)),
+                        m.group(5).equals("1"),
+                        m.group(6).equals("-"),
+                        Double.parseDouble(m.group(7)),
+                        Double.parseDouble(m.group(8)),
+                        m.group(9),
+                        "M".equals(mux),
+                        mux != null && mux.startsWith("m") ? Integer.parseInt(mux.substring(1)) : -1
+                ));
+            } else if (!line.startsWith(" ") && !line.startsWith("\t")) {
+                messageId = -1;
+            }
+        }
+        return signals;
+    }
+
+    /**
+     * Compile signals into listeners
+     * @param signals The signals
+     * @return A listener per signal
+     */
+    public static List<DbcCanListener> compile(List<DbcSignal> signals) {
+        Map<Long, DbcSignal> multiplexors = new HashMap<>();
+        for (DbcSignal signal : signals) {
+            if (signal.isMultiplexor()) multiplexors.put(key(signal), signal);
+        }
+
+        List<DbcCanListener> listeners = new ArrayList<>(signals.size());
+        for (DbcSignal signal : signals) {
+            DbcSignal multiplexor = multiplexors.get(key(signal));
+            if (signal.getMultiplexValue() >= 0 && multiplexor == null) {
+                log.warning("Skipping multiplexed signal without a multiplexor " + signal);
+                continue;
+            }
+            listeners.add(new DbcCanListener(signal, multiplexor));
+        }
+        return listeners;
+    }
+
+    /**
+     * The id of the message of a signal with the extended flag, a standard and an extended id may be the same number
+     */
+    private static long key(DbcSignal signal) {
+        return signal.isExtended() ? signal.getMessageId() | EXTENDED_FLAG : signal.getMessageId();
+    }
+
+    /**
+     * Parse a DBC file and compile its signals into listeners
+     */
+    public static List<DbcCanListener> load(File file) throws IOException {
+        return compile(parse(file));
+    }
+}
@@ -0,0 +1,40 @@
+package dk.lbloft.dbc;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A signal definition from a DBC file
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class DbcSignal {
+    private final int messageId;
+    /** True if the message has a 29 bit id, even if it is below 0x800 */
+    private final boolean extended;
+    private final String messageName;
+    private final String name;
+    private final int startBit;
+    private final int length;
+    /** True for Intel (@1), false for Motorola (@0) */
+    private final boolean littleEndian;
+    private final boolean signed;
+    private final double factor;
+    private final double offset;
+    private final String unit;
+    /** True if this signal selects which multiplexed signals are in the frame */
+    private final boolean multiplexor;
+    /** The multiplexor value this signal is sent with, -1 if not multiplexed */
+    private final int multiplexValue;
+
+    /**
+     * A signal of a message with a 29 bit id if the id is above 0x7FF
+     */
+    public DbcSignal(int messageId, String messageName, String name, int startBit, int length, boolean littleEndian,
+                     boolean signed, double factor, double offset, String unit, boolean multiplexor, int multiplexValue) {
+        this(messageId, messageId > 0x7FF, messageName, name, startBit, length, littleEndian, signed, factor, offset,
+                unit, multiplexor, multiplexValue);
+    }
+}
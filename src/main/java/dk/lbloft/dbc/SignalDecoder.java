@@ -0,0 +1,55 @@
+package dk.lbloft.dbc;
+
+/**
+ * A DBC signal compiled into a shift and a mask on the frame payload.
+ * The payload is the first 8 bytes of the frame as a big endian long, zero padded.
+ */
+final class SignalDecoder {
+    private final boolean littleEndian;
+    private final int shift;
+    private final long mask;
+    private final int signShift;
+    private final double factor;
+    private final double offset;
+
+    SignalDecoder(DbcSignal signal) {
+        int start = signal.getStartBit();
+        int length = signal.getLength();
+        if (length < 1 || length > 64) {
+            throw new IllegalArgumentException("Invalid length of " + signal);
+        }
+
+        littleEndian = signal.isLittleEndian();
+        int lsb;
+        if (littleEndian) {
+            /* Intel: the start bit is the lsb, bits counted from the lsb of the first byte */
+            lsb = start;
+            if (start + length > 64) {
+                throw new IllegalArgumentException("Signal outside of the frame " + signal);
+            }
+            shift = start;
+        } else {
+            /* Motorola: the start bit is the msb, find it counted from the msb of the first byte */
+            int msb = (start / 8) * 8 + 7 - start % 8;
+            lsb = msb + length - 1;
+            if (lsb > 63) {
+                throw new IllegalArgumentException("Signal outside of the frame " + signal);
+            }
+            shift = 63 - lsb;
+        }
+        mask = length == 64 ? -1L : (1L << length) - 1;
+        signShift = signal.isSigned() ? 64 - length : 0;
+        factor = signal.getFactor();
+        offset = signal.getOffset();
+    }
+
+    long raw(long payload) {
+        long bits = littleEndian ? Long.reverseBytes(payload) : payload;
+        long raw = (bits >>> shift) & mask;
+        return signShift > 0 ? (raw << signShift) >> signShift : raw;
+    }
+
+    double value(long payload) {
+        return raw(payload) * factor + offset;
+    }
+}
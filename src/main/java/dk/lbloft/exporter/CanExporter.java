@@ -1,9 +1,29 @@
 package dk.lbloft.exporter;
 
 import dk.lbloft.CanListener;
+import dk.lbloft.SignalSnapshot;
 
+import java.io.Closeable;
 import java.util.Collection;
 
-public interface CanExporter {
-    void export(Collection<CanListener<?>> listeners);
+public interface CanExporter extends Closeable {
+    /**
+     * Export a consistent copy of the listener values
+     * The snapshot is reused, so it must not be kept after the call
+     * @param snapshot Values of the listeners
+     */
+    void export(SignalSnapshot snapshot);
+
+    /**
+     * Export the current values of listeners not being updated
+     */
+    default void export(Collection<CanListener<?>> listeners) {
+        export(SignalSnapshot.of(listeners));
+    }
+
+    /**
+     * Flush and release what the exporter holds
+     */
+    @Override
+    default void close() {}
 }
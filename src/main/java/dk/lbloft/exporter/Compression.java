@@ -0,0 +1,65 @@
+package dk.lbloft.exporter;
+
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * How closed trip log segments are compressed.
+ */
+public enum Compression {
+    /** Keep the segments as they are */
+    NONE(""),
+    /** Smallest files, readable with zcat */
+    GZIP(".gz"),
+    /** Several times faster than gzip for slow CPUs, readable with lz4cat */
+    LZ4(".lz4");
+
+    private static final int BUFFER = 64 * 1024;
+
+    private final String extension;
+
+    Compression(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Compress a file streaming, the compressed file replaces it when complete
+     * @return The compressed file
+     */
+    public File compress(File file) throws IOException {
+        if (this == NONE) return file;
+        File compressed = new File(file.getPath() + extension);
+        File partial = new File(compressed.getPath() + ".part");
+        try (InputStream in = new FileInputStream(file);
+             OutputStream out = open(new FileOutputStream(partial))) {
+            byte[] buffer = new byte[BUFFER];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                out.write(buffer, 0, n);
+            }
+        }
+        Files.move(partial.toPath(), compressed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.delete(file.toPath());
+        return compressed;
+    }
+
+    private OutputStream open(OutputStream out) throws IOException {
+        switch (this) {
+            case GZIP: return new GZIPOutputStream(out, BUFFER);
+            case LZ4: return new LZ4FrameOutputStream(out, LZ4FrameOutputStream.BLOCKSIZE.SIZE_64KB);
+            default: return out;
+        }
+    }
+}
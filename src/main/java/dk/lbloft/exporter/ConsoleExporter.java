@@ -1,28 +1,42 @@
 package dk.lbloft.exporter;
 
-import dk.lbloft.CanListener;
 import dk.lbloft.Console;
+import dk.lbloft.ScreenRenderer;
+import dk.lbloft.SignalSnapshot;
 
-import java.util.Collection;
 import java.util.Date;
 
 public class ConsoleExporter implements CanExporter {
+    private final Console console;
+    private final ScreenRenderer screen;
+
+    public ConsoleExporter() {
+        this(Console.out);
+    }
+
+    public ConsoleExporter(Console console) {
+        this.console = console;
+        this.screen = new ScreenRenderer(console);
+    }
+
     @Override
-    public void export(Collection<CanListener<?>> listeners) {
-        Console.out.clearScreen();
-        Console.out.printTitle("Can data");
+    public void export(SignalSnapshot snapshot) {
+        int w = console.getWidth();
+        screen.begin().line(console.formatTitle("Can data", w));
         boolean even = true;
-        int w = Console.out.getWidth();
-        for (CanListener listener : listeners) {
-            if(listener.getValue() != null) {
-                Console.out.println(
-                        String.format("%s %" + (w - listener.getName().length() -1) + "s", listener.getName(), listener.getValue()),
+        for (int i = 0; i < snapshot.size(); i++) {
+            Object value = snapshot.getValue(i);
+            if(value != null) {
+                String name = snapshot.getName(i);
+                screen.line(console.style(
+                        String.format("%s %" + (w - name.length() -1) + "s", name, value),
                         Console.Color.Default, even ? Console.Color.Default : Console.Color.DarkGray
-                );
+                ));
             }
             even = !even;
         }
-        Console.out.printLine();
-        Console.out.println(new Date());
+        screen.line(console.formatLine(w, '\u2500'));
+        screen.line(new Date().toString());
+        screen.render();
     }
 }
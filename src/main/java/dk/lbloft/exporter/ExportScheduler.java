@@ -0,0 +1,227 @@
+package dk.lbloft.exporter;
+
+import dk.lbloft.CanListener;
+import dk.lbloft.ChangeListener;
+import dk.lbloft.SignalSnapshot;
+import dk.lbloft.SnapshotSource;
+import dk.lbloft.metrics.Latencies;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * Run the exporters when the listener values change instead of polling them.
+ *
+ * Every exporter has a min interval, changes within the interval are conflated into a
+ * single export, and an optional max interval exporting even if nothing changed,
+ * for values like "RunTime" that aren't driven by frames.
+ * The dispatching thread only bumps a counter and wakes the export thread if it sleeps.
+ * The exporters due at the same time share a snapshot taken through the dispatcher, or the
+ * dispatchers of several buses.
+ */
+@Log
+public class ExportScheduler implements ChangeListener, Closeable {
+    private final SnapshotSource source;
+    private final SignalSnapshot snapshot;
+    private final List<Entry> entries = new ArrayList<>();
+    private final AtomicLong version = new AtomicLong();
+    /* System.nanoTime() of the first change not yet seen by the export thread, 0 if none */
+    private final AtomicLong changedSince = new AtomicLong();
+    private final Thread thread;
+
+    private volatile boolean waiting;
+    private volatile boolean running = true;
+
+    private Latencies latencies;
+
+    /**
+     * An exporter with its intervals and the time spent exporting
+     */
+    public static class Entry {
+        @Getter
+        final CanExporter exporter;
+        final long minInterval;
+        final long maxInterval;
+        long lastExport;
+        long lastVersion = -1;
+        long dirtySince;
+
+        /**
+         * Number of exports
+         */
+        @Getter
+        volatile long exports;
+
+        /**
+         * Total time spent exporting in nanos
+         */
+        @Getter
+        volatile long exportNanos;
+
+        /**
+         * Time spent by the last export in nanos
+         */
+        @Getter
+        volatile long lastExportNanos;
+
+        Entry(CanExporter exporter, long minInterval, long maxInterval) {
+            this.exporter = exporter;
+            this.minInterval = minInterval;
+            this.maxInterval = maxInterval;
+        }
+    }
+
+    /**
+     * @param source The dispatcher updating the listeners
+     * @param listeners The listeners to export
+     */
+    public ExportScheduler(SnapshotSource source, Collection<? extends CanListener<?>> listeners) {
+        this.source = source;
+        this.snapshot = new SignalSnapshot(listeners);
+        this.thread = new Thread(this::run, "export-scheduler");
+    }
+
+    /**
+     * Export on every change
+     */
+    public ExportScheduler add(CanExporter exporter) {
+        return add(exporter, 0, 0);
+    }
+
+    /**
+     * Add an exporter, must be called before the scheduler is started
+     * @param exporter The exporter
+     * @param minInterval Min millis between exports, changes within the interval are conflated
+     * @param maxInterval Max millis between exports even without changes, 0 to only export on changes
+     */
+    public ExportScheduler add(CanExporter exporter, long minInterval, long maxInterval) {
+        entries.add(new Entry(exporter, TimeUnit.MILLISECONDS.toNanos(minInterval), TimeUnit.MILLISECONDS.toNanos(maxInterval)));
+        return this;
+    }
+
+    /**
+     * Record the time from a change until each exporter has exported it, must be set before the scheduler is started
+     */
+    public ExportScheduler latencies(Latencies latencies) {
+        this.latencies = latencies;
+        return this;
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    public ExportScheduler start() {
+        thread.start();
+        return this;
+    }
+
+    @Override
+    public void changed(CanListener<?> listener) {
+        if (latencies != null && changedSince.get() == 0) {
+            changedSince.compareAndSet(0, System.nanoTime());
+        }
+        version.incrementAndGet();
+        if (waiting) LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        while (running) {
+            /* Taken before the version, so the changes of the time are included in the version */
+            long since = changedSince.getAndSet(0);
+            long current = version.get();
+            long now = System.nanoTime();
+            long wake = Long.MAX_VALUE;
+            long nextAllowed = Long.MAX_VALUE;
+            boolean captured = false;
+            for (Entry entry : entries) {
+                if (since != 0 && entry.dirtySince == 0) entry.dirtySince = since;
+                boolean dirty = entry.lastVersion != current;
+                if (dirty && (now - (entry.lastExport + entry.minInterval) >= 0 || entry.lastVersion < 0)
+                        || !dirty && entry.maxInterval > 0 && now - (entry.lastExport + entry.maxInterval) >= 0) {
+                    if (!captured) {
+                        source.snapshot(snapshot);
+                        captured = true;
+                    }
+                    export(entry, current, now);
+                    dirty = false;
+                }
+                if (dirty) {
+                    wake = Math.min(wake, entry.lastExport + entry.minInterval - now);
+                } else if (entry.maxInterval > 0) {
+                    wake = Math.min(wake, entry.lastExport + entry.maxInterval - now);
+                }
+                nextAllowed = Math.min(nextAllowed, entry.lastExport + entry.minInterval - now);
+            }
+
+            /* Check the version after announcing that we wait, so a change can't be missed */
+            waiting = true;
+            if (version.get() != current) {
+                /* Changed while exporting, wait for the first exporter allowed to export again */
+                wake = Math.min(wake, nextAllowed);
+            }
+            if (running && wake > 0) {
+                LockSupport.parkNanos(this, wake);
+            }
+            waiting = false;
+        }
+    }
+
+    private void export(Entry entry, long current, long now) {
+        long previous = entry.lastVersion;
+        entry.lastVersion = current;
+        entry.lastExport = now;
+        long start = System.nanoTime();
+        try {
+            entry.exporter.export(snapshot);
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Export failed", e);
+        }
+        /* Only written by the export thread */
+        long nanos = System.nanoTime() - start;
+        entry.lastExportNanos = nanos;
+        entry.exportNanos += nanos;
+        entry.exports++;
+        if (latencies != null && entry.lastVersion != previous && entry.dirtySince != 0) {
+            latencies.record(Latencies.Stage.EXPORT, start + nanos - entry.dirtySince);
+        }
+        entry.dirtySince = 0;
+    }
+
+    /**
+     * Stop the export thread, export changes held back by the min intervals and close the exporters
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long current = version.get();
+        boolean captured = false;
+        for (Entry entry : entries) {
+            if (entry.lastVersion != current) {
+                if (!captured) {
+                    source.snapshot(snapshot);
+                    captured = true;
+                }
+                export(entry, current, System.nanoTime());
+            }
+        }
+        for (Entry entry : entries) {
+            entry.exporter.close();
+        }
+    }
+}
@@ -1,50 +1,469 @@
 package dk.lbloft.exporter;
 
-import com.google.common.io.Files;
-import dk.lbloft.CanListener;
+import dk.lbloft.SignalSnapshot;
 import lombok.SneakyThrows;
+import lombok.extern.java.Log;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.util.Collection;
-import java.util.function.Function;
+import java.nio.charset.CharsetEncoder;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
+/**
+ * Write the listener values as CSV rows.
+ *
+ * Rows are encoded into reused direct buffers without building Strings or boxing primitive values.
+ * Full buffers, or buffers older than the max delay, are handed to a background thread
+ * writing them in batches to a FileChannel kept open until the exporter is closed. The writer also
+ * takes rows older than the max delay when no more rows are exported.
+ *
+ * The log can be split in segments by size or age, each starting with the names row. The writer
+ * thread starts the next segment and hands the closed one to a {@link SegmentArchiver}.
+ */
+@Log
 public class FileExporter implements CanExporter {
-    private File outFile;
+    public enum FsyncPolicy {
+        /** Leave it to the OS to write the data to the disk */
+        NEVER,
+        /** Force the data to the disk after every batch */
+        EVERY_BATCH,
+        /** Force the data to the disk at most once per fsync interval */
+        INTERVAL
+    }
+
+    private static final int BUFFERS = 4;
+    private static final ByteBuffer POISON = ByteBuffer.allocate(0);
+    private static final byte[] DIGITS = "0123456789".getBytes();
+    private static final long DECIMALS = 1_000_000;
+
+    private final File outFile;
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BUFFERS);
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(BUFFERS + 1);
+    private final CharsetEncoder encoder = Charset.defaultCharset().newEncoder();
+    private final byte[] scratch = new byte[20];
+    private final Thread writer;
 
-    private boolean isFirst = true;
+    private ByteBuffer current;
+    private long currentSince;
+    private long maxDelay = 1000;
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.NEVER;
+    private long fsyncInterval = 10_000;
+    private long lastFsync;
+    private boolean closed;
+
+    /* Names row written first in every segment, set by the first export */
+    private volatile byte[] header;
+
+    /* Only used by the writer thread, and by close after it stopped */
+    private FileChannel channel;
+    private File segment;
+    private int segments = 1;
+    private long segmentBytes;
+    private long segmentStart = System.currentTimeMillis();
+    private long maxSegmentBytes;
+    private long maxSegmentMillis;
+    private SegmentArchiver archiver;
 
     public FileExporter(File outFile) {
+        this(outFile, 64 * 1024);
+    }
+
+    @SneakyThrows
+    public FileExporter(File outFile, int batchSize) {
         this.outFile = outFile;
-        if(outFile.exists()) {
-            outFile.delete();
+        this.segment = outFile;
+        this.channel = open(outFile);
+        for (int i = 0; i < BUFFERS; i++) {
+            free.add(ByteBuffer.allocateDirect(batchSize));
         }
+        current = free.take();
+
+        writer = new Thread(this::write, "file-exporter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Max time in millis a row can wait in a buffer before it is handed to the writer
+     */
+    public FileExporter maxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+        return this;
+    }
+
+    public FileExporter fsync(FsyncPolicy policy) {
+        this.fsyncPolicy = policy;
+        return this;
+    }
+
+    public FileExporter fsync(FsyncPolicy policy, long intervalMillis) {
+        this.fsyncPolicy = policy;
+        this.fsyncInterval = intervalMillis;
+        return this;
+    }
+
+    /**
+     * Start a new segment when the current one would exceed a size or has been written for a while,
+     * must be called before exporting
+     * @param maxBytes Max size of a segment, 0 for no limit
+     * @param maxMillis Max millis to write a segment, 0 for no limit
+     */
+    public FileExporter rotate(long maxBytes, long maxMillis) {
+        this.maxSegmentBytes = maxBytes;
+        this.maxSegmentMillis = maxMillis;
+        return this;
+    }
+
+    /**
+     * Compress the closed segments, including the last one when the exporter is closed, and delete the oldest
+     * logs in the directory when they take more than a total size, must be called before exporting
+     * @param compression How to compress the segments
+     * @param retainBytes Max total size of the logs, 0 to keep all
+     */
+    public FileExporter archive(Compression compression, long retainBytes) {
+        String extension = extension(outFile.getName());
+        archiver = new SegmentArchiver(compression, retainBytes, file -> {
+            String name = file.getName();
+            for (Compression c : Compression.values()) {
+                if (name.endsWith(extension + c.getExtension())) return file.isFile();
+            }
+            return false;
+        });
+        archiver.setActive(segment);
+        return this;
+    }
+
+    /**
+     * The file being written
+     */
+    public File getSegment() {
+        return segment;
+    }
+
+    /**
+     * Number of full buffers waiting for the writer thread
+     */
+    public int getQueued() {
+        return full.size();
     }
 
     @Override
-    public void export(Collection<CanListener<?>> listeners) {
-        if(isFirst) {
-            writeLine(listeners, l -> l.getName());
-            isFirst = false;
+    public synchronized void export(SignalSnapshot snapshot) {
+        if (closed) return;
+        if (header == null) {
+            header = encodeHeader(snapshot);
+        }
+        writeRow(snapshot);
+        if (current.position() > 0 && System.currentTimeMillis() - currentSince >= maxDelay) {
+            handOff();
         }
-        writeLine(listeners, l -> l.getValue());
     }
 
-    @SneakyThrows
-    private void writeLine(Collection<CanListener<?>> listeners, Function<CanListener, Object> function) {
-        StringBuilder sb = new StringBuilder();
-        for (CanListener listener : listeners) {
-            Object element = function.apply(listener);
-            if(element instanceof Number) {
-                sb.append(element);
+    private void writeRow(SignalSnapshot snapshot) {
+        int start = current.position();
+        try {
+            encodeRow(current, snapshot, false);
+        } catch (BufferOverflowException e) {
+            current.position(start);
+            if (start > 0) {
+                handOff();
+            } else {
+                /* The row is larger than a batch, give it a larger buffer */
+                current = ByteBuffer.allocateDirect(current.capacity() * 2);
+            }
+            writeRow(snapshot);
+            return;
+        }
+        if (start == 0) {
+            currentSince = System.currentTimeMillis();
+        }
+    }
+
+    private byte[] encodeHeader(SignalSnapshot snapshot) {
+        for (int size = 1024; ; size *= 2) {
+            ByteBuffer out = ByteBuffer.allocate(size);
+            try {
+                encodeRow(out, snapshot, true);
+                return Arrays.copyOf(out.array(), out.position());
+            } catch (BufferOverflowException e) {
+                /* Try a larger buffer */
+            }
+        }
+    }
+
+    private void encodeRow(ByteBuffer out, SignalSnapshot snapshot, boolean names) {
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (names) {
+                putQuoted(out, snapshot.getName(i));
             } else {
-                sb.append("\"");
-                sb.append(element);
-                sb.append("\"");
+                putValue(out, snapshot, i);
             }
-            sb.append(", ");
+            out.put((byte) ',').put((byte) ' ');
+        }
+        out.put((byte) '\n');
+    }
+
+    private void putValue(ByteBuffer out, SignalSnapshot snapshot, int index) {
+        switch (snapshot.getKind(index)) {
+            case LONG:
+                putLong(out, snapshot.getLong(index));
+                break;
+            case DOUBLE:
+                putDouble(out, snapshot.getDouble(index));
+                break;
+            default:
+                Object value = snapshot.getValue(index);
+                if (value instanceof Double || value instanceof Float) {
+                    putDouble(out, ((Number) value).doubleValue());
+                } else if (value instanceof Number) {
+                    putLong(out, ((Number) value).longValue());
+                } else {
+                    putQuoted(out, value == null ? null : value.toString());
+                }
+        }
+    }
+
+    private void putQuoted(ByteBuffer out, String value) {
+        out.put((byte) '"');
+        putString(out, value == null ? "null" : value);
+        out.put((byte) '"');
+    }
+
+    private void putString(ByteBuffer out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                /* Not plain ascii, leave it to the encoder */
+                encoder.reset();
+                if (encoder.encode(CharBuffer.wrap(value, i, value.length()), out, true).isOverflow()) {
+                    throw new BufferOverflowException();
+                }
+                return;
+            }
+            out.put((byte) c);
+        }
+    }
+
+    private void putLong(ByteBuffer out, long value) {
+        if (value == Long.MIN_VALUE) {
+            putString(out, Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            out.put((byte) '-');
+            value = -value;
+        }
+        int pos = scratch.length;
+        do {
+            scratch[--pos] = DIGITS[(int) (value % 10)];
+            value /= 10;
+        } while (value > 0);
+        out.put(scratch, pos, scratch.length - pos);
+    }
+
+    /**
+     * Write a double with up to 6 decimals, trailing zeros are skipped
+     */
+    private void putDouble(ByteBuffer out, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= 1e12) {
+            putString(out, Double.toString(value));
+            return;
+        }
+        if (value < 0) {
+            out.put((byte) '-');
+            value = -value;
+        }
+        long scaled = Math.round(value * DECIMALS);
+        putLong(out, scaled / DECIMALS);
+        out.put((byte) '.');
+        long fraction = scaled % DECIMALS;
+        if (fraction == 0) {
+            out.put((byte) '0');
+            return;
+        }
+        for (long unit = DECIMALS / 10; fraction > 0; unit /= 10) {
+            out.put(DIGITS[(int) (fraction / unit)]);
+            fraction %= unit;
+        }
+    }
+
+    @SneakyThrows
+    private void handOff() {
+        full.put(current);
+        current = free.take();
+    }
+
+    /**
+     * Hand off rows waiting longer than the max delay, called by the writer when nothing has been handed off
+     */
+    private synchronized void handOffIfDue() {
+        if (closed || current.position() == 0 || System.currentTimeMillis() - currentSince < maxDelay) return;
+        /* The writer can't wait for a free buffer, it is the one freeing them */
+        ByteBuffer next = free.poll();
+        if (next == null) return;
+        full.add(current);
+        current = next;
+    }
+
+    private void write() {
+        ArrayList<ByteBuffer> batch = new ArrayList<>(BUFFERS + 1);
+        boolean running = true;
+        while (running) {
+            try {
+                ByteBuffer first = full.poll(Math.max(1, maxDelay / 2), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    handOffIfDue();
+                    continue;
+                }
+                batch.add(first);
+                full.drainTo(batch);
+                /* Removed by identity, an empty POISON equals a buffer filled to its capacity */
+                running = !removeIdentical(batch, POISON);
+                for (ByteBuffer buffer : batch) {
+                    buffer.flip();
+                }
+                if (maxSegmentBytes > 0 || maxSegmentMillis > 0) {
+                    /* Rotate between buffers, so segments only exceed the max size by a single buffer */
+                    for (ByteBuffer buffer : batch) {
+                        write(buffer);
+                    }
+                } else {
+                    write(batch.toArray(new ByteBuffer[0]));
+                }
+                fsync(!running);
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (IOException e) {
+                log.log(Level.SEVERE, "Unable to write to " + outFile, e);
+            } finally {
+                for (ByteBuffer buffer : batch) {
+                    buffer.clear();
+                    free.offer(buffer);
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Write buffers to the current segment, starting a new segment first if it is due
+     */
+    private void write(ByteBuffer ... buffers) throws IOException {
+        long bytes = 0;
+        for (ByteBuffer buffer : buffers) {
+            bytes += buffer.remaining();
+        }
+        if (bytes == 0) return;
+        rotateIfDue(bytes);
+        if (segmentBytes == 0 && header != null) {
+            ByteBuffer names = ByteBuffer.wrap(header);
+            while (names.hasRemaining()) {
+                segmentBytes += channel.write(names);
+            }
+        }
+        while (hasRemaining(buffers)) {
+            segmentBytes += channel.write(buffers);
+        }
+    }
+
+    private static boolean removeIdentical(ArrayList<ByteBuffer> buffers, ByteBuffer buffer) {
+        for (int i = 0; i < buffers.size(); i++) {
+            if (buffers.get(i) == buffer) {
+                buffers.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Close the segment and start the next one if it is full or old enough
+     * @param bytes Size of the data about to be written
+     */
+    private void rotateIfDue(long bytes) throws IOException {
+        long now = System.currentTimeMillis();
+        if (segmentBytes == 0) return;
+        if (!(maxSegmentBytes > 0 && segmentBytes + bytes > maxSegmentBytes
+                || maxSegmentMillis > 0 && now - segmentStart >= maxSegmentMillis)) return;
+
+        fsync(true);
+        channel.close();
+        File closed = segment;
+        segment = segmentFile(++segments);
+        channel = open(segment);
+        segmentBytes = 0;
+        segmentStart = now;
+        if (archiver != null) {
+            archiver.setActive(segment);
+            archiver.archive(closed);
+        }
+        log.info("Continuing the trip log in " + segment);
+    }
+
+    /**
+     * The file of a segment, the first segment is the out file, the next ones are numbered before the extension
+     */
+    File segmentFile(int number) {
+        if (number == 1) return outFile;
+        String name = outFile.getName();
+        String extension = extension(name);
+        String base = name.substring(0, name.length() - extension.length());
+        return new File(outFile.getParentFile(), String.format("%s-%03d%s", base, number, extension));
+    }
+
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(dot) : "";
+    }
+
+    private static FileChannel open(File file) throws IOException {
+        return FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    private void fsync(boolean closing) throws IOException {
+        long now = System.currentTimeMillis();
+        if (fsyncPolicy == FsyncPolicy.EVERY_BATCH || closing && fsyncPolicy != FsyncPolicy.NEVER
+                || fsyncPolicy == FsyncPolicy.INTERVAL && now - lastFsync >= fsyncInterval) {
+            channel.force(false);
+            lastFsync = now;
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Write the waiting rows and close the file
+     */
+    @Override
+    @SneakyThrows
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        full.put(current);
+        full.put(POISON);
+        writer.join();
+        channel.close();
+        if (archiver != null) {
+            archiver.setActive(null);
+            archiver.archive(segment);
+            archiver.close();
         }
-        sb.append("\n");
-        Files.append(sb.toString(), outFile, Charset.defaultCharset());
     }
 }
@@ -0,0 +1,104 @@
+package dk.lbloft.exporter;
+
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Compress closed trip log segments and delete the oldest logs beyond the retention limit.
+ *
+ * Segments are handled one at a time on a low priority background thread, so the writer only hands
+ * over the file name and never waits for the compression.
+ */
+@Log
+public class SegmentArchiver implements Closeable {
+    private final Compression compression;
+    private final long retainBytes;
+    private final FileFilter logs;
+    private final ExecutorService executor;
+
+    private volatile File active;
+
+    /**
+     * @param compression How to compress the segments
+     * @param retainBytes Max total size of the logs kept, 0 to keep all
+     * @param logs Selects the logs in the directory of the segments counted for the retention
+     */
+    public SegmentArchiver(Compression compression, long retainBytes, FileFilter logs) {
+        this.compression = compression;
+        this.retainBytes = retainBytes;
+        this.logs = logs;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "segment-archiver");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * The segment being written, never deleted by the retention
+     */
+    public void setActive(File active) {
+        this.active = active;
+    }
+
+    /**
+     * Compress a closed segment and apply the retention in the background
+     */
+    public void archive(File segment) {
+        executor.execute(() -> {
+            try {
+                File archived = compression.compress(segment);
+                log.fine(() -> "Archived " + archived);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Unable to compress " + segment, e);
+            }
+            retain(segment.getAbsoluteFile().getParentFile());
+        });
+    }
+
+    /**
+     * Delete the oldest logs until the total size is within the limit
+     */
+    void retain(File dir) {
+        if (retainBytes <= 0) return;
+        File[] files = dir.listFiles(logs);
+        if (files == null) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        for (int i = 0; i < files.length && total > retainBytes; i++) {
+            if (active != null && files[i].getAbsoluteFile().equals(active.getAbsoluteFile())) continue;
+            long length = files[i].length();
+            if (files[i].delete()) {
+                total -= length;
+                log.info("Deleted " + files[i] + " to keep the logs within " + retainBytes + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Wait for the segments handed over to be archived
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
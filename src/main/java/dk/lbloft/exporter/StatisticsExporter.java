@@ -0,0 +1,62 @@
+package dk.lbloft.exporter;
+
+import dk.lbloft.BusStatistics;
+import dk.lbloft.Console;
+import dk.lbloft.ScreenRenderer;
+import dk.lbloft.SignalSnapshot;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Console view of the frame statistics per id of the buses instead of the signal values.
+ * Ids not seen for several times their usual gap are shown in red, so a quiet ECU can be told
+ * from a pipeline falling behind, where every id turns stale at once.
+ */
+public class StatisticsExporter implements CanExporter {
+    private static final String HEADER = "%-9s %10s %8s %9s %9s %9s %9s %9s %6s";
+    private static final String ROW = "%-9s %10d %8.1f %9.2f %9.2f %9.2f %9.2f %9s %6d";
+
+    private final Console console;
+    private final ScreenRenderer screen;
+    private final Collection<BusStatistics> statistics;
+    private final List<BusStatistics.Snapshot> snapshots = new ArrayList<>();
+
+    public StatisticsExporter(Collection<BusStatistics> statistics) {
+        this(Console.out, statistics);
+    }
+
+    public StatisticsExporter(Console console, Collection<BusStatistics> statistics) {
+        this.console = console;
+        this.screen = new ScreenRenderer(console);
+        this.statistics = statistics;
+        for (int i = 0; i < statistics.size(); i++) {
+            snapshots.add(new BusStatistics.Snapshot());
+        }
+    }
+
+    @Override
+    public void export(SignalSnapshot snapshot) {
+        int w = console.getWidth();
+        screen.begin();
+        int index = 0;
+        for (BusStatistics bus : statistics) {
+            /* All values of a row are from between the same two frames */
+            BusStatistics.Snapshot ids = bus.snapshot(snapshots.get(index++));
+            screen.line(console.formatTitle(String.format("%s %.1f%% of %d kbit/s", bus.getName(), bus.getLoad(), bus.getBitrate() / 1000), w));
+            screen.line(String.format(HEADER, "Id", "Frames", "Rate/s", "Min ms", "Mean ms", "Max ms", "Jitter ms", "Age ms", "Gaps"));
+            for (int i = 0; i < ids.size(); i++) {
+                String row = String.format(ROW,
+                        ids.formatId(i), ids.getCount(i), ids.getRate(i),
+                        ids.getMinGap(i) / 1000.0, ids.getMeanGap(i) / 1000.0, ids.getMaxGap(i) / 1000.0,
+                        ids.getJitter(i) / 1000.0, Long.toString(ids.getAge(i) / 1000), ids.getGaps(i));
+                screen.line(ids.isStale(i) ? console.style(row, Console.Color.Red, Console.Color.Default) : row);
+            }
+        }
+        screen.line(console.formatLine(w, '\u2500'));
+        screen.line(new Date().toString());
+        screen.render();
+    }
+}
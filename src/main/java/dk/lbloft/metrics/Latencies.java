@@ -0,0 +1,102 @@
+package dk.lbloft.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms of the stages a frame goes through from the bus to the exporters.
+ */
+public class Latencies {
+    public enum Stage {
+        /**
+         * From the frame timestamp of socketcand until the frame is received, only meaningful when
+         * socketcand runs on this host or the clocks are synchronized, and with the millis of the system clock
+         */
+        DELIVERY,
+        /**
+         * From receiving the frame until it is taken from the queue to be decoded
+         */
+        QUEUE,
+        /**
+         * Handling and mapping the frame by its listeners, including the change notifications
+         */
+        DECODE,
+        /**
+         * From the first change of a value until an exporter has completed exporting it
+         */
+        EXPORT
+    }
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private final long[][] reported = new long[histograms.length][LatencyHistogram.BUCKETS];
+    private final long[] current = new long[LatencyHistogram.BUCKETS];
+
+    public Latencies() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public LatencyHistogram get(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * The percentiles of every stage since the previous report, for the log
+     */
+    public synchronized String report() {
+        StringBuilder report = new StringBuilder("Latency");
+        for (Stage stage : Stage.values()) {
+            long[] previous = reported[stage.ordinal()];
+            get(stage).copy(current);
+            long count = 0;
+            for (int i = 0; i < current.length; i++) {
+                long c = current[i];
+                current[i] = c - previous[i];
+                previous[i] = c;
+                count += current[i];
+            }
+            report.append(String.format(" %s: n %d", stage.name().toLowerCase(), count));
+            if (count > 0) {
+                for (double percentile : PERCENTILES) {
+                    report.append(String.format(", p%s %s", format(percentile), format(LatencyHistogram.percentile(current, percentile))));
+                }
+            }
+            report.append(';');
+        }
+        report.setLength(report.length() - 1);
+        return report.toString();
+    }
+
+    /**
+     * Write the latencies of every stage as a summary
+     */
+    public void collect(MetricsWriter metrics) {
+        String name = "can_latency_seconds";
+        metrics.metric(name, MetricsWriter.Type.SUMMARY, "Latency of the stages from the bus to the exporters");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = get(stage);
+            String label = stage.name().toLowerCase();
+            for (double percentile : PERCENTILES) {
+                metrics.sample(name, histogram.getPercentile(percentile) / 1e9, "stage", label, "quantile", Double.toString(percentile / 100));
+            }
+            metrics.sample(name + "_sum", histogram.getSum() / 1e9, "stage", label);
+            metrics.sample(name + "_count", histogram.getCount(), "stage", label);
+        }
+    }
+
+    private static String format(double percentile) {
+        return percentile == (long) percentile ? Long.toString((long) percentile) : Double.toString(percentile);
+    }
+
+    private static String format(long nanos) {
+        if (nanos < TimeUnit.MICROSECONDS.toNanos(10)) return nanos + "ns";
+        if (nanos < TimeUnit.MILLISECONDS.toNanos(10)) return String.format("%.1fus", nanos / 1e3);
+        return String.format("%.1fms", nanos / 1e6);
+    }
+}
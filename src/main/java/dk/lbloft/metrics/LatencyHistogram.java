@@ -0,0 +1,115 @@
+package dk.lbloft.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanos with a fixed number of logarithmic buckets.
+ *
+ * Every power of two is split in 32 buckets, so a percentile is within about 3% of the recorded values,
+ * from 1 ns up to about 18 minutes. Recording only increments a preallocated counter and may be done
+ * from several threads, while other threads read the percentiles.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_BITS = 40;
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+    public static final int BUCKETS = SUB_BUCKETS + (MAX_BITS - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency, negative values are counted as 0 and values above the range as the max of the range
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, Math.min(nanos, MAX_VALUE));
+        counts.incrementAndGet(bucket(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Number of latencies recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Sum of the latencies recorded in nanos
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * Largest latency recorded in nanos
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Latency in nanos that the given percent of the recorded latencies are within
+     * @param percentile Percent between 0 and 100
+     */
+    public long getPercentile(double percentile) {
+        return Math.min(percentile(copy(new long[BUCKETS]), percentile), getMax());
+    }
+
+    /**
+     * Copy the bucket counts, eg. to get the percentiles of an interval from the difference of two copies
+     * @param into Array of {@link #BUCKETS} counts
+     * @return The array
+     */
+    public long[] copy(long[] into) {
+        for (int i = 0; i < BUCKETS; i++) {
+            into[i] = counts.get(i);
+        }
+        return into;
+    }
+
+    /**
+     * Percentile of bucket counts
+     * @param counts Array of {@link #BUCKETS} counts
+     * @param percentile Percent between 0 and 100
+     * @return The highest latency of the bucket holding the percentile, 0 if nothing was counted
+     */
+    public static long percentile(long[] counts, double percentile) {
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return highest(i);
+        }
+        return MAX_VALUE;
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int shift = exponent - SUB_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (nanos >> shift) - SUB_BUCKETS;
+    }
+
+    static long highest(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long lowest = (long) (SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,150 @@
+package dk.lbloft.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dk.lbloft.CanListener;
+import dk.lbloft.SignalSnapshot;
+import dk.lbloft.SnapshotSource;
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+
+/**
+ * Serve the listener values and the counters of the logger at /metrics in the Prometheus text format.
+ *
+ * Every scrape fills a snapshot from the dispatchers, which never blocks the dispatching threads,
+ * and reads the counters through the collectors. Scrapes are handled one at a time on a thread of the server.
+ */
+@Log
+public class MetricsServer implements Closeable {
+    public static final String PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Writes metrics on every scrape
+     */
+    @FunctionalInterface
+    public interface Collector {
+        void collect(MetricsWriter metrics);
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final SnapshotSource source;
+    private final SignalSnapshot snapshot;
+    private final List<Collector> collectors = new ArrayList<>();
+    private final StringBuilder buffer = new StringBuilder(16 * 1024);
+
+    /**
+     * @param port Port to listen on, 0 for any free port
+     * @param source The dispatcher updating the listeners
+     * @param listeners The listeners to serve
+     */
+    public MetricsServer(int port, SnapshotSource source, Collection<? extends CanListener<?>> listeners) throws IOException {
+        this.source = source;
+        this.snapshot = new SignalSnapshot(listeners);
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext(PATH, this::handle);
+    }
+
+    /**
+     * Add a collector, must be called before the server is started
+     */
+    public MetricsServer add(Collector collector) {
+        collectors.add(collector);
+        return this;
+    }
+
+    public MetricsServer start() {
+        server.start();
+        return this;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Write the current metrics
+     */
+    public synchronized String scrape() {
+        buffer.setLength(0);
+        MetricsWriter metrics = new MetricsWriter(buffer);
+        source.snapshot(snapshot);
+        writeSignals(metrics);
+        for (Collector collector : collectors) {
+            try {
+                collector.collect(metrics);
+            } catch (Exception e) {
+                log.log(Level.WARNING, "Collecting metrics failed", e);
+            }
+        }
+        return buffer.toString();
+    }
+
+    private void writeSignals(MetricsWriter metrics) {
+        metrics.metric("can_signal", MetricsWriter.Type.GAUGE, "Current value of a signal, signals without a numeric value are left out");
+        for (int i = 0; i < snapshot.size(); i++) {
+            switch (snapshot.getKind(i)) {
+                case LONG:
+                    metrics.sample("can_signal", snapshot.getLong(i), "name", snapshot.getName(i));
+                    break;
+                case DOUBLE:
+                    metrics.sample("can_signal", snapshot.getDouble(i), "name", snapshot.getName(i));
+                    break;
+                case OBJECT:
+                    Object value = snapshot.getValue(i);
+                    if (value instanceof Number) {
+                        metrics.sample("can_signal", ((Number) value).doubleValue(), "name", snapshot.getName(i));
+                    } else if (value instanceof Boolean) {
+                        metrics.sample("can_signal", (Boolean) value ? 1 : 0, "name", snapshot.getName(i));
+                    }
+                    break;
+                default:
+            }
+        }
+        metrics.metric("can_snapshot_frames", MetricsWriter.Type.COUNTER, "Frames dispatched when the values were read");
+        metrics.sample("can_snapshot_frames", snapshot.getVersion());
+        metrics.metric("can_snapshot_timestamp_seconds", MetricsWriter.Type.GAUGE, "Bus time when the values were read");
+        metrics.sample("can_snapshot_timestamp_seconds", snapshot.getTimestamp() / 1e6);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,85 @@
+package dk.lbloft.metrics;
+
+/**
+ * Write metrics in the Prometheus text format.
+ *
+ * Samples of a metric must follow its header, so write all samples of a metric before the next one.
+ */
+public class MetricsWriter {
+    public enum Type {COUNTER, GAUGE, SUMMARY}
+
+    private final StringBuilder out;
+
+    public MetricsWriter(StringBuilder out) {
+        this.out = out;
+    }
+
+    /**
+     * Start a metric
+     * @param name Name of the metric, counters should end with _total
+     * @param type Type of the metric
+     * @param help Description of the metric
+     */
+    public MetricsWriter metric(String name, Type type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type.name().toLowerCase()).append('\n');
+        return this;
+    }
+
+    /**
+     * Write a sample of the current metric
+     * @param name Name of the metric
+     * @param value The value
+     * @param labels Names and values of the labels in turn
+     */
+    public MetricsWriter sample(String name, double value, String ... labels) {
+        name(name, labels);
+        if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            out.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == (long) value) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+        return this;
+    }
+
+    /**
+     * Write a sample of the current metric without converting it to a double
+     */
+    public MetricsWriter sample(String name, long value, String ... labels) {
+        name(name, labels);
+        out.append(value).append('\n');
+        return this;
+    }
+
+    private void name(String name, String[] labels) {
+        out.append(name);
+        if (labels.length > 0) {
+            out.append('{');
+            for (int i = 0; i + 1 < labels.length; i += 2) {
+                if (i > 0) out.append(',');
+                out.append(labels[i]).append("=\"");
+                escape(labels[i + 1]);
+                out.append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ');
+    }
+
+    private void escape(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': out.append("\\\\"); break;
+                case '"': out.append("\\\""); break;
+                case '\n': out.append("\\n"); break;
+                default: out.append(c);
+            }
+        }
+    }
+}
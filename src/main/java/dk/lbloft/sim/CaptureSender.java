@@ -0,0 +1,104 @@
+package dk.lbloft.sim;
+
+import dk.lbloft.capture.CaptureReader;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * Send the frames of a capture through a {@link SocketcandServer}, paced by their timestamps
+ */
+@Log
+public class CaptureSender implements Closeable {
+    private static final int FLUSH_FRAMES = 256;
+
+    private final SocketcandServer server;
+    private final CaptureReader reader;
+    private final double speed;
+    private final boolean loop;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    /**
+     * Frames sent
+     */
+    @Getter
+    private volatile long sent;
+
+    /**
+     * @param server The server to send through
+     * @param reader The capture
+     * @param speed Replay speed, 1 is real time and 0 as fast as possible
+     * @param loop Start over at the end of the capture
+     */
+    public CaptureSender(SocketcandServer server, CaptureReader reader, double speed, boolean loop) {
+        this.server = server;
+        this.reader = reader;
+        this.speed = speed;
+        this.loop = loop;
+        this.thread = new Thread(this::run, "capture-sender");
+        thread.setDaemon(true);
+    }
+
+    public CaptureSender start() {
+        thread.start();
+        return this;
+    }
+
+    /**
+     * Wait for the capture to be sent, never returns when looping
+     */
+    public void join() throws InterruptedException {
+        thread.join();
+    }
+
+    private void run() {
+        try {
+            do {
+                send(reader.cursor());
+            } while (running && loop);
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Stopped sending " + reader.getFile(), e);
+        }
+        server.flush();
+    }
+
+    private void send(CaptureReader.Cursor cursor) {
+        long started = System.nanoTime();
+        long first = -1;
+        int unflushed = 0;
+        while (running && cursor.next()) {
+            long timestamp = cursor.timestamp();
+            if (first < 0) first = timestamp;
+            if (speed > 0) {
+                long wait = started + (long) (TimeUnit.MICROSECONDS.toNanos(timestamp - first) / speed) - System.nanoTime();
+                if (wait > 0) {
+                    server.flush();
+                    unflushed = 0;
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            server.send(timestamp, cursor.id(), cursor.extended(), cursor.data(), cursor.length());
+            sent++;
+            if (++unflushed == FLUSH_FRAMES) {
+                server.flush();
+                unflushed = 0;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package dk.lbloft.sim;
+
+import dk.lbloft.CanClock;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * Generate frames for a set of ids at fixed rates and send them through a {@link SocketcandServer}.
+ *
+ * Every frame carries the {@link System#nanoTime()} it was sent at in its 8 data bytes, so a receiver
+ * in the same JVM can measure the latency through the whole pipeline.
+ * Rates beyond what the bus could carry are allowed, to find where the receiver saturates.
+ */
+@Log
+public class FrameGenerator implements Closeable {
+    /* Bits of a standard frame with 8 data bytes, including a typical amount of stuff bits */
+    public static final int BITS_PER_FRAME = 125;
+
+    private static final long MAX_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final SocketcandServer server;
+    private final List<Signal> signals = new ArrayList<>();
+    private final byte[] data = new byte[8];
+    private final ByteBuffer payload = ByteBuffer.wrap(data);
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    /**
+     * Frames generated
+     */
+    @Getter
+    private volatile long generated;
+
+    private static class Signal {
+        final int id;
+        final boolean extended;
+        final long periodNanos;
+        final int burst;
+        long next;
+
+        Signal(int id, boolean extended, long periodNanos, int burst) {
+            this.id = id;
+            this.extended = extended;
+            this.periodNanos = periodNanos;
+            this.burst = burst;
+        }
+    }
+
+    public FrameGenerator(SocketcandServer server) {
+        this.server = server;
+        this.thread = new Thread(this::run, "frame-generator");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Frames per second giving a load of the bus
+     * @param load Load in percent of the bitrate, can be above 100
+     * @param bitrate Bits per second of the bus
+     */
+    public static double framesPerSecond(double load, int bitrate) {
+        return bitrate * load / 100 / BITS_PER_FRAME;
+    }
+
+    /**
+     * Generate an id, must be called before starting
+     * @param id Can id, ids above 0x7FF are sent as extended ids
+     * @param rate Frames per second
+     * @param burst Frames sent back to back every period, the period is stretched to keep the rate
+     */
+    public FrameGenerator add(int id, double rate, int burst) {
+        burst = Math.max(burst, 1);
+        signals.add(new Signal(id, id > 0x7FF, (long) (burst * 1e9 / rate), burst));
+        return this;
+    }
+
+    /**
+     * Spread a load over a number of consecutive ids
+     * @param firstId The first id
+     * @param ids Number of ids
+     * @param load Load in percent of the bitrate
+     * @param bitrate Bits per second of the bus
+     * @param burst Frames sent back to back
+     */
+    public FrameGenerator addLoad(int firstId, int ids, double load, int bitrate, int burst) {
+        double rate = framesPerSecond(load, bitrate) / ids;
+        for (int i = 0; i < ids; i++) {
+            add(firstId + i, rate, burst);
+        }
+        return this;
+    }
+
+    public FrameGenerator start() {
+        long now = System.nanoTime();
+        for (Signal signal : signals) {
+            signal.next = now;
+        }
+        thread.start();
+        return this;
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                long now = System.nanoTime();
+                long wake = now + MAX_SLEEP_NANOS;
+                boolean sent = false;
+                for (Signal signal : signals) {
+                    /* Catch up on frames due, without sending more than a second worth after a stall */
+                    if (now - signal.next > TimeUnit.SECONDS.toNanos(1)) signal.next = now;
+                    while (signal.next - now <= 0) {
+                        for (int i = 0; i < signal.burst; i++) {
+                            send(signal);
+                        }
+                        signal.next += signal.periodNanos;
+                        sent = true;
+                    }
+                    wake = Math.min(wake, signal.next);
+                }
+                if (sent) server.flush();
+                long sleep = wake - System.nanoTime();
+                if (sleep > 0) LockSupport.parkNanos(sleep);
+            }
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Stopped generating frames", e);
+        }
+    }
+
+    private void send(Signal signal) {
+        payload.putLong(0, System.nanoTime());
+        server.send(CanClock.SYSTEM.currentTimeMicros(), signal.id, signal.extended, data, data.length);
+        generated++;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server.flush();
+    }
+}
@@ -0,0 +1,169 @@
+package dk.lbloft.sim;
+
+import dk.lbloft.CanBus;
+import dk.lbloft.CanListener;
+import dk.lbloft.FramePipeline;
+import dk.lbloft.LongCanListener;
+import dk.lbloft.SignalSnapshot;
+import dk.lbloft.exporter.CanExporter;
+import dk.lbloft.exporter.ExportScheduler;
+import dk.lbloft.metrics.Latencies;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End to end test of the receiving side.
+ *
+ * Frames from a {@link FrameGenerator} go through the socketcand protocol, Kayak, a {@link CanBus}
+ * and an {@link ExportScheduler} in this JVM. The latency from sending a frame to decoding it is
+ * measured from the send time the generator puts in the frame.
+ */
+@Log
+public class LoadTest {
+    private static final int SAMPLES = 1 << 20;
+
+    private final SocketcandServer server;
+    private final FrameGenerator generator;
+    private final String busName;
+    private final Integer[] ids;
+
+    @Getter
+    public static class Report {
+        private long sent;
+        private long received;
+        private long dispatched;
+        private long dropped;
+        private long exports;
+        private double seconds;
+        private long p50;
+        private long p99;
+        private long max;
+        private String stages;
+
+        @Override
+        public String toString() {
+            return String.format("Sent %d frames in %.1fs (%.0f frames/s), received %d, dispatched %d, dropped %d, exports %d%n" +
+                            "Latency p50 %.3fms, p99 %.3fms, max %.3fms%n%s",
+                    sent, seconds, sent / seconds, received, dispatched, dropped, exports,
+                    p50 / 1e6, p99 / 1e6, max / 1e6, stages);
+        }
+    }
+
+    /**
+     * Decodes the send time from the frames and keeps a sample of the latencies
+     */
+    static class LatencyListener extends LongCanListener {
+        private final long[] samples = new long[SAMPLES];
+        private long count;
+        private long max;
+        private long random = 0x9E3779B97F4A7C15L;
+
+        LatencyListener(Integer ... ids) {
+            super("Latency", ids);
+        }
+
+        @Override
+        public long handleLong(int id, ByteBuffer data) {
+            long latency = System.nanoTime() - data.getLong(0);
+            max = Math.max(max, latency);
+            if (count < SAMPLES) {
+                samples[(int) count] = latency;
+            } else {
+                /* Reservoir sampling keeps an even sample of all frames */
+                random ^= random << 13;
+                random ^= random >>> 7;
+                random ^= random << 17;
+                long slot = Math.floorMod(random, count + 1);
+                if (slot < SAMPLES) samples[(int) slot] = latency;
+            }
+            count++;
+            return latency;
+        }
+
+        long percentile(long[] sorted, double percentile) {
+            return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+        }
+    }
+
+    /**
+     * @param server The server the generator sends through
+     * @param generator The generator, not started
+     * @param busName Name of the simulated bus
+     * @param ids The generated ids
+     */
+    public LoadTest(SocketcandServer server, FrameGenerator generator, String busName, Integer ... ids) {
+        this.server = server;
+        this.generator = generator;
+        this.busName = busName;
+        this.ids = ids;
+    }
+
+    /**
+     * Connect, generate frames for a while and report what got through
+     * @param duration Time to generate frames
+     * @param unit Unit of the duration
+     */
+    public Report run(long duration, TimeUnit unit) throws InterruptedException {
+        LatencyListener latency = new LatencyListener(ids);
+        List<CanListener<?>> listeners = Collections.singletonList(latency);
+        Latencies latencies = new Latencies();
+        CanBus bus = new CanBus(0, "127.0.0.1", server.getPort(), busName, listeners,
+                FramePipeline.DEFAULT_CAPACITY, FramePipeline.OverflowPolicy.DROP, null, latencies);
+
+        AtomicLong exports = new AtomicLong();
+        ExportScheduler scheduler = new ExportScheduler(bus.getDispatcher(), listeners)
+                .latencies(latencies)
+                .add(new CanExporter() {
+                    @Override
+                    public void export(SignalSnapshot snapshot) {
+                        exports.incrementAndGet();
+                    }
+                });
+        bus.getDispatcher().addChangeListener(scheduler);
+        scheduler.start();
+        bus.start();
+
+        for (int i = 0; i < 100 && server.getClients() == 0; i++) {
+            Thread.sleep(100);
+        }
+        if (server.getClients() == 0) {
+            log.warning("Nothing connected to the simulated bus");
+        }
+
+        long started = System.nanoTime();
+        generator.start();
+        Thread.sleep(unit.toMillis(duration));
+        generator.close();
+        long elapsed = System.nanoTime() - started;
+
+        /* Let the frames in flight arrive */
+        long sent = server.getSent();
+        for (int i = 0; i < 50 && bus.getPipeline().getReceived() < sent; i++) {
+            Thread.sleep(20);
+        }
+        bus.close();
+        scheduler.close();
+
+        Report report = new Report();
+        report.sent = sent;
+        report.received = bus.getPipeline().getReceived();
+        report.dispatched = bus.getDispatcher().getDispatched();
+        report.dropped = bus.getPipeline().getDropped();
+        report.exports = exports.get();
+        report.seconds = elapsed / 1e9;
+        long[] sorted = Arrays.copyOf(latency.samples, (int) Math.min(latency.count, SAMPLES));
+        Arrays.sort(sorted);
+        report.p50 = latency.percentile(sorted, 50);
+        report.p99 = latency.percentile(sorted, 99);
+        report.max = latency.max;
+        report.stages = latencies.report();
+        return report;
+    }
+}
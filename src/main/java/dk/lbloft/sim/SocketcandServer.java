@@ -0,0 +1,330 @@
+package dk.lbloft.sim;
+
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * TCP server speaking the socketcand protocol for a single simulated bus, so the Kayak
+ * {@code BusURL}/{@code Bus} can connect to it instead of a car.
+ *
+ * Clients get {@code < hi >}, open the bus and either subscribe to ids (BCM mode) or
+ * switch to {@code < rawmode >} to receive every frame. Frames are sent as
+ * {@code < frame ID SEC.USEC DATA >}, formatted once and written to every interested client.
+ */
+@Log
+public class SocketcandServer implements Closeable {
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_COMMAND = 256;
+
+    private final String busName;
+    private final ServerSocket serverSocket;
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private final Thread acceptor;
+
+    /* Frame line being formatted, only used by the sending thread */
+    private final byte[] line = new byte[64];
+
+    private volatile boolean running = true;
+
+    /**
+     * Frames written to clients, a frame sent to two clients counts twice
+     */
+    @Getter
+    private volatile long sent;
+
+    private final AtomicLong received = new AtomicLong();
+
+    /**
+     * @param port Port to listen on, 0 for any free port
+     * @param busName Name of the simulated bus, eg. can0
+     */
+    public SocketcandServer(int port, String busName) throws IOException {
+        this.busName = busName;
+        this.serverSocket = new ServerSocket(port, 16, InetAddress.getByName("0.0.0.0"));
+        this.acceptor = new Thread(this::accept, "socketcand-accept");
+        acceptor.setDaemon(true);
+    }
+
+    public SocketcandServer start() {
+        acceptor.start();
+        log.info("Simulating " + busName + " on port " + getPort());
+        return this;
+    }
+
+    /**
+     * Frames sent by clients with {@code < send >}
+     */
+    public long getReceived() {
+        return received.get();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Number of clients that have opened the bus
+     */
+    public int getClients() {
+        int open = 0;
+        for (Client client : clients) {
+            if (client.open) open++;
+        }
+        return open;
+    }
+
+    /**
+     * Send a frame to the clients interested in the id, called by a single thread.
+     * The frame is buffered until {@link #flush()}
+     * @param timestamp Frame time in micros
+     */
+    public void send(long timestamp, int id, boolean extended, byte[] data, int length) {
+        int size = format(timestamp, id, extended, data, length);
+        long count = 0;
+        for (Client client : clients) {
+            if (client.wants(id) && client.write(line, size)) count++;
+        }
+        sent += count;
+    }
+
+    /**
+     * Write the buffered frames to the clients
+     */
+    public void flush() {
+        for (Client client : clients) {
+            client.flush();
+        }
+    }
+
+    private int format(long timestamp, int id, boolean extended, byte[] data, int length) {
+        int pos = 0;
+        line[pos++] = '<';
+        line[pos++] = ' ';
+        pos = put(pos, "frame ");
+        for (int shift = extended ? 28 : 8; shift >= 0; shift -= 4) {
+            line[pos++] = HEX[(id >>> shift) & 0xF];
+        }
+        line[pos++] = ' ';
+        pos = putDecimal(pos, timestamp / 1_000_000, 1);
+        line[pos++] = '.';
+        pos = putDecimal(pos, timestamp % 1_000_000, 6);
+        line[pos++] = ' ';
+        for (int i = 0; i < Math.min(length, 8); i++) {
+            line[pos++] = HEX[(data[i] >> 4) & 0xF];
+            line[pos++] = HEX[data[i] & 0xF];
+        }
+        line[pos++] = ' ';
+        line[pos++] = '>';
+        return pos;
+    }
+
+    private int put(int pos, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            line[pos++] = (byte) text.charAt(i);
+        }
+        return pos;
+    }
+
+    private int putDecimal(int pos, long value, int minDigits) {
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        digits = Math.max(digits, minDigits);
+        for (int i = digits - 1; i >= 0; i--) {
+            line[pos + i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + digits;
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Client client = new Client(socket);
+                clients.add(client);
+                Thread thread = new Thread(client, "socketcand-client-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (running) log.log(Level.WARNING, "Accept failed", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            log.log(Level.FINE, "Ignore exception: " + e.getMessage(), e);
+        }
+        for (Client client : clients) {
+            client.close();
+        }
+    }
+
+    private class Client implements Runnable {
+        private final Socket socket;
+        private final OutputStream out;
+        /* Written by the client thread and read by the sending thread, 1 when subscribed */
+        private final AtomicIntegerArray standard = new AtomicIntegerArray(0x800);
+        private final Set<Integer> extended = ConcurrentHashMap.newKeySet();
+
+        private volatile boolean open;
+        private volatile boolean raw;
+        private boolean dirty;
+
+        Client(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+        }
+
+        boolean wants(int id) {
+            if (!open) return false;
+            if (raw) return true;
+            return id >= 0 && id < standard.length() ? standard.get(id) != 0 : extended.contains(id);
+        }
+
+        synchronized boolean write(byte[] bytes, int length) {
+            try {
+                out.write(bytes, 0, length);
+                dirty = true;
+                return true;
+            } catch (IOException e) {
+                close();
+                return false;
+            }
+        }
+
+        synchronized void flush() {
+            if (!dirty) return;
+            dirty = false;
+            try {
+                out.flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void reply(String message) {
+            byte[] bytes = ("< " + message + " >").getBytes(StandardCharsets.US_ASCII);
+            write(bytes, bytes.length);
+            flush();
+        }
+
+        @Override
+        public void run() {
+            try (InputStream in = new BufferedInputStream(socket.getInputStream())) {
+                reply("hi");
+                String command;
+                while ((command = readCommand(in)) != null) {
+                    handle(command.trim().split("\\s+"));
+                }
+            } catch (SocketException e) {
+                log.fine("Client disconnected: " + e.getMessage());
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Client failed", e);
+            } finally {
+                close();
+            }
+        }
+
+        private void handle(String[] args) {
+            switch (args[0]) {
+                case "open":
+                    if (args.length > 1 && args[1].equals(busName)) {
+                        open = true;
+                        reply("ok");
+                    } else {
+                        reply("error could not open bus");
+                    }
+                    break;
+                case "rawmode":
+                    raw = true;
+                    reply("ok");
+                    break;
+                case "bcmmode":
+                    raw = false;
+                    reply("ok");
+                    break;
+                case "subscribe":
+                case "unsubscribe":
+                    if (args.length > 3) {
+                        try {
+                            subscribe(Integer.parseInt(args[3], 16), args[3].length() == 8, args[0].equals("subscribe"));
+                        } catch (NumberFormatException e) {
+                            reply("error invalid can id " + args[3]);
+                        }
+                    }
+                    break;
+                case "echo":
+                    reply("echo");
+                    break;
+                case "send":
+                    received.incrementAndGet();
+                    break;
+                default:
+                    log.fine("Ignoring command " + String.join(" ", args));
+            }
+        }
+
+        private void subscribe(int id, boolean isExtended, boolean subscribe) {
+            if (!isExtended && id >= 0 && id < standard.length()) {
+                standard.set(id, subscribe ? 1 : 0);
+            } else if (subscribe) {
+                extended.add(id);
+            } else {
+                extended.remove(id);
+            }
+        }
+
+        /**
+         * Read the text between the next {@code <} and {@code >}
+         */
+        private String readCommand(InputStream in) throws IOException {
+            int c;
+            while ((c = in.read()) != '<') {
+                if (c < 0) return null;
+            }
+            StringBuilder command = new StringBuilder();
+            while ((c = in.read()) != '>') {
+                if (c < 0 || command.length() > MAX_COMMAND) return null;
+                command.append((char) c);
+            }
+            return command.toString();
+        }
+
+        void close() {
+            open = false;
+            clients.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.log(Level.FINE, "Ignore exception: " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package dk.lbloft;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+public class BusStatisticsTest {
+
+    @Test
+    public void testGaps() {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        BusStatistics statistics = new BusStatistics("can0", dispatcher.getClock());
+        dispatcher.setStatistics(statistics);
+
+        ByteBuffer data = ByteBuffer.wrap(new byte[8]);
+        long time = 1_000_000;
+        for (int i = 0; i < 20; i++) {
+            time += i % 2 == 0 ? 9_000 : 11_000;
+            dispatcher.dispatch(time, 0x3D0, data.duplicate());
+        }
+        /* A missed frame */
+        time += 40_000;
+        dispatcher.dispatch(time, 0x3D0, data.duplicate());
+        dispatcher.dispatch(time, 0x18FEF100, data.duplicate());
+
+        assertThat(statistics.getIds(), contains(0x3D0, 0x18FEF100));
+        assertThat(statistics.getCount(0x3D0), is(21L));
+        assertThat(statistics.getMinGap(0x3D0), is(9_000L));
+        assertThat(statistics.getMaxGap(0x3D0), is(40_000L));
+        assertThat(statistics.getMeanGap(0x3D0), is((time - 1_009_000) / 20));
+        assertThat(statistics.getGaps(0x3D0), is(1L));
+        assertThat(statistics.getJitter(0x3D0), is(greaterThan(0.0)));
+        assertThat(statistics.getAge(0x3D0), is(0L));
+        assertThat(statistics.getAge(0x3D1), is(-1L));
+
+        /* Overdue after three gaps */
+        dispatcher.dispatch(time + 100_000, 0x1C4, data.duplicate());
+        assertThat(statistics.isStale(0x3D0), is(true));
+    }
+
+    @Test
+    public void testLoad() {
+        BusStatistics statistics = new BusStatistics("can0", () -> 2_000_000).setBitrate(500_000);
+        /* 1000 frames of 8 bytes in a second */
+        for (int i = 0; i <= 1000; i++) {
+            statistics.record(1_000_000 + i * 1000, 0x100, 8);
+        }
+        double expected = 1001 * BusStatistics.frameBits(false, 8) * 100.0 / 500_000;
+        assertThat(statistics.getLoad(), is(closeTo(expected, 0.5)));
+    }
+
+    @Test
+    public void testSnapshot() {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        BusStatistics statistics = new BusStatistics("can0", dispatcher.getClock());
+        dispatcher.setStatistics(statistics);
+
+        ByteBuffer data = ByteBuffer.wrap(new byte[8]);
+        /* More extended ids than there are slots for */
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 600; i++) {
+                dispatcher.dispatch(1_000_000 + round * 10_000 + i, 0x18FE0000 + i * 0x100, data.duplicate());
+            }
+        }
+        dispatcher.dispatch(1_020_000, 0x3D0, data.duplicate());
+
+        BusStatistics.Snapshot snapshot = statistics.snapshot(new BusStatistics.Snapshot());
+        assertThat(snapshot.size(), is(513));
+        assertThat(snapshot.getId(0), is(0x3D0));
+        assertThat(snapshot.getId(512), is(0x18FE0000 + 511 * 0x100));
+        assertThat(snapshot.getCount(1), is(2L));
+        assertThat(snapshot.getMeanGap(1), is(10_000L));
+        assertThat(snapshot.getAge(1), is(statistics.getAge(0x18FE0000)));
+        assertThat(statistics.getCount(0x18FE0000 + 511 * 0x100), is(2L));
+        assertThat(statistics.getCount(0x18FE0000 + 512 * 0x100), is(0L));
+    }
+
+    @Test
+    public void testExtendedIdBelow800() {
+        BusStatistics statistics = new BusStatistics("can0", () -> 2_000_000);
+        for (int i = 0; i <= 1000; i++) {
+            statistics.record(1_000_000 + i * 1000, 0x3D0, true, 8);
+        }
+        statistics.record(1_000_000, 0x3D0, false, 8);
+
+        BusStatistics.Snapshot snapshot = statistics.snapshot(new BusStatistics.Snapshot());
+        assertThat(snapshot.size(), is(2));
+        assertThat(snapshot.formatId(0), is("3D0"));
+        assertThat(snapshot.getCount(0), is(1L));
+        assertThat(snapshot.isExtended(1), is(true));
+        assertThat(snapshot.formatId(1), is("000003D0"));
+        assertThat(snapshot.getCount(1), is(1001L));
+        assertThat(snapshot.getMeanGap(1), is(1000L));
+        /* Counted with the bits of an extended frame */
+        double expected = 1001 * BusStatistics.frameBits(true, 8) * 100.0 / 500_000;
+        assertThat(statistics.getLoad(), is(closeTo(expected, 0.5)));
+    }
+}
@@ -27,6 +27,39 @@ public class CanListenerTest {
         assertThat(l2.newFrame(0x001, wrap(0x04)), is(5));
     }
 
+    @Test
+    public void testPrimitiveMapping() {
+        IntCanListener l1 = CanListener.getShort("Test", 0, 0x001).setIntMapping(i -> (int)(i*1.25));
+        assertThat(l1.newFrame(0x001, wrap(0x00, 0x04)), is(5));
+        assertThat(l1.getInt(), is(5));
+
+        DoubleCanListener l2 = new DoubleCanListener("Test", 0x001) {
+            @Override
+            public double handleDouble(int id, ByteBuffer data) {
+                return data.get(0) & 0xFF;
+            }
+        }.setDoubleMapping(d -> d / 2);
+        assertThat(l2.getValue(), is(nullValue()));
+        assertThat(l2.newFrame(0x001, wrap(0x03)), is(1.5));
+    }
+
+    @Test
+    public void testPrimitiveChanged() {
+        IntCanListener l1 = CanListener.getByte("Test", 0, 0x001);
+        l1.newFrame(0x001, wrap(0x01));
+        assertThat(l1.isChanged(), is(true));
+        l1.newFrame(0x001, wrap(0x01));
+        assertThat(l1.isChanged(), is(false));
+        l1.newFrame(0x001, wrap(0x02));
+        assertThat(l1.isChanged(), is(true));
+    }
+
+    @Test
+    public void testUnsignedInt() {
+        LongCanListener l1 = CanListener.getUnsignedInt("Test", 0, 0x001);
+        assertThat(l1.newFrame(0x001, wrap(0xFF, 0xFF, 0xFF, 0xFF)), is(0xFFFFFFFFL));
+    }
+
     @Test
     public void testBit() {
         CanListener<String> l1 = CanListener.getBit("Test", 0, 0x01, "On", "Off", 0x001);
@@ -86,4 +119,36 @@ public class CanListenerTest {
         assertThat(l3.newFrame(0x001, wrap(0xFF, 0x00)), is("ff 00"));
         assertThat(l3.newFrame(0x001, wrap(0xFF, 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06)), is("ff 00 01 02 03 04 05 06"));
     }
+
+    @Test
+    public void testOnChangeSeesNewValue() {
+        Object[] seen = new Object[2];
+        CanListener<String> gear = new CanListener<String>("Gear", 0x001) {
+            @Override
+            public String handle(int id, ByteBuffer data) {
+                return "D" + data.get(0);
+            }
+
+            @Override
+            protected void onChange(String value) {
+                seen[0] = getValue();
+            }
+        };
+        IntCanListener speed = new IntCanListener("Speed", 0x001) {
+            @Override
+            public int handleInt(int id, ByteBuffer data) {
+                return data.get(0);
+            }
+
+            @Override
+            protected void onChange(int value) {
+                seen[1] = getInt();
+            }
+        };
+
+        gear.newFrame(0x001, wrap(0x03));
+        speed.newFrame(0x001, wrap(0x03));
+        assertThat(seen[0], is("D3"));
+        assertThat(seen[1], is(3));
+    }
 }
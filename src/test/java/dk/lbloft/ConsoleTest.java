@@ -0,0 +1,55 @@
+package dk.lbloft;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+public class ConsoleTest {
+
+    @Test
+    public void testStyle() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Console console = new Console(bytes);
+
+        console.print("ok", Console.Color.Green, Console.Format.Underline, Console.Format.Bold);
+        console.flush();
+        assertThat(bytes.toString(), is("\u001B[1;4;32;49mok\u001B[0;39;49m"));
+        assertThat(console.style("ok", Console.Color.Green, Console.Color.Default, Console.Format.Bold, Console.Format.Underline),
+                is(bytes.toString()));
+    }
+
+    @Test
+    public void testLine() {
+        Console console = new Console(new ByteArrayOutputStream());
+        assertThat(console.formatLine(3, '-'), is("---"));
+        assertThat(console.formatLine(300, '-').length(), is(300));
+        assertThat(console.formatLine(0, '-'), is(""));
+    }
+
+    @Test
+    public void testFrame() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Console console = new Console(bytes);
+
+        console.beginFrame();
+        console.println("Speed", Console.Color.Red);
+        console.printLine(4, '-');
+        console.flush();
+        assertThat(bytes.size(), is(0));
+
+        console.endFrame();
+        assertThat(bytes.toString(), containsString("Speed"));
+        assertThat(bytes.toString(), endsWith("----" + System.lineSeparator()));
+    }
+
+    @Test
+    public void testFixedSizeIsKeptOnResize() {
+        Console console = new Console(new ByteArrayOutputStream()).setSize(120, 40);
+        console.resized();
+        assertThat(console.getWidth(), is(120));
+        assertThat(console.getHeight(), is(40));
+    }
+}
@@ -0,0 +1,45 @@
+package dk.lbloft;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExecuterTest {
+
+    @Test
+    public void testRun() {
+        Executer.Result result = Executer.sh("echo out; echo err >&2; exit 3").run();
+        assertThat(result.returnCode, is(3));
+        assertThat(result.stdOut, is("out\n"));
+        assertThat(result.stdErr, is("err\n"));
+    }
+
+    @Test
+    public void testLines() throws Exception {
+        List<String> lines = new ArrayList<>();
+        Executer.Result result = Executer.sh("echo a; echo b")
+                .onStdOut(lines::add)
+                .start()
+                .waitFor();
+        assertThat(result.returnCode, is(0));
+        assertThat(result.stdOut, is(""));
+        assertThat(lines, contains("a", "b"));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        Executer.Execution execution = Executer.cmd("sleep", "10")
+                .timeout(100, TimeUnit.MILLISECONDS)
+                .start();
+        assertThrows(TimeoutException.class, execution::waitFor);
+
+        assertThat(Executer.cmd("sleep", "10").timeout(100, TimeUnit.MILLISECONDS).run().returnCode, is(-1));
+    }
+}
@@ -0,0 +1,225 @@
+package dk.lbloft;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class FrameDispatcherTest {
+
+    private ByteBuffer wrap(int ... bytes) {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+        for (int aByte : bytes) {
+            buffer.put((byte) aByte);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void testDispatchById() {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        CanListener<Integer> speed = dispatcher.add(CanListener.getByte("Speed", 0, 0x3D0));
+        CanListener<Integer> other = dispatcher.add(CanListener.getByte("Other", 1, 0x3D0));
+        CanListener<Integer> rpm = dispatcher.add(CanListener.getByte("RPM", 0, 0x1C4));
+
+        dispatcher.dispatch(0x3D0, wrap(0x10, 0x20));
+        assertThat(speed.getValue(), is(0x10));
+        assertThat(other.getValue(), is(0x20));
+        assertThat(rpm.getValue(), is(nullValue()));
+
+        dispatcher.dispatch(0x1C4, wrap(0x30));
+        assertThat(rpm.getValue(), is(0x30));
+    }
+
+    @Test
+    public void testExtendedIds() {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        CanListener<Integer> l1 = dispatcher.add(CanListener.getByte("Extended", 0, 0x18FEF100));
+
+        dispatcher.dispatch(0x18FEF100, wrap(0x42));
+        assertThat(l1.getValue(), is(0x42));
+        assertThat(dispatcher.getIds(), contains(0x18FEF100));
+    }
+
+    @Test
+    public void testListenerWithManyIds() {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        CanListener<Integer> l1 = dispatcher.add(CanListener.getByte("Both", 0, 0x001, 0x002));
+
+        dispatcher.dispatch(0x002, wrap(0x02));
+        assertThat(l1.getValue(), is(0x02));
+        assertThat(dispatcher.getIds(), contains(0x001, 0x002));
+    }
+
+    @Test
+    public void testListenersUseFrameTime() {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        CanListener<?> fuelUsed = null;
+        for (CanListener<?> listener : Main.buildListeners()) {
+            dispatcher.add(listener);
+            if (listener.getName().equals("Fuel Used")) fuelUsed = listener;
+        }
+
+        /* A maf of 14.7 * 740 burns one liter per second */
+        dispatcher.dispatch(1_000_000L, 0x3D3, wrap(0x2A, 0x7E));
+        dispatcher.dispatch(2_500_000L, 0x3D3, wrap(0x2A, 0x7E));
+        assertThat((Double) fuelUsed.getValue(), is(closeTo(1.5, 0.001)));
+        assertThat(dispatcher.getClock().currentTimeMillis(), is(2500L));
+    }
+
+    @Test
+    public void testConsistentSnapshot() throws InterruptedException {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        ArrayList<CanListener<?>> listeners = new ArrayList<>();
+        /* Both listeners always get the same value from a frame */
+        listeners.add(dispatcher.add(CanListener.getByte("A", 0, 0x001)));
+        listeners.add(dispatcher.add(CanListener.getByte("B", 0, 0x001)));
+
+        Thread writer = new Thread(() -> {
+            byte[] data = new byte[1];
+            for (int i = 0; i < 200_000; i++) {
+                data[0] = (byte) i;
+                dispatcher.dispatch(0, 0x001, data, 1);
+            }
+        });
+        writer.start();
+
+        SignalSnapshot snapshot = new SignalSnapshot(listeners);
+        while (writer.isAlive()) {
+            dispatcher.snapshot(snapshot);
+            assertThat(snapshot.getValue(0), is(snapshot.getValue(1)));
+        }
+        writer.join();
+        assertThat(dispatcher.snapshot(snapshot).getVersion(), is(200_000L));
+    }
+
+    @Test
+    public void testGroupSnapshot() {
+        FrameDispatcher powertrain = new FrameDispatcher();
+        powertrain.add(CanListener.getByte("Speed", 0, 0x3D0));
+        FrameDispatcher comfort = new FrameDispatcher();
+        comfort.add(CanListener.getByte("Door", 0, 0x3D0));
+
+        DispatcherGroup group = new DispatcherGroup(Arrays.asList(powertrain, comfort));
+        powertrain.dispatch(0x3D0, ByteBuffer.wrap(new byte[] {42}));
+        comfort.dispatch(0x3D0, ByteBuffer.wrap(new byte[] {1}));
+        comfort.dispatch(0x3D0, ByteBuffer.wrap(new byte[] {2}));
+
+        SignalSnapshot snapshot = group.snapshot(new SignalSnapshot(group.getListeners()));
+        assertThat(snapshot.getName(1), is("Door"));
+        assertThat(snapshot.getLong(0), is(42L));
+        assertThat(snapshot.getLong(1), is(2L));
+        assertThat(snapshot.getVersion(), is(3L));
+    }
+
+    @Test
+    public void testDerivedSignals() {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        IntCanListener speed = dispatcher.add(CanListener.getByte("Speed", 0, 0x3D0));
+        IntCanListener maf = dispatcher.add(CanListener.getByte("MAF", 0, 0x3D3));
+        int[] computed = new int[1];
+        DerivedSignal ratio = dispatcher.add(new DerivedSignal("Ratio", in -> {
+            computed[0]++;
+            return in[0] == 0 ? Double.NaN : in[1] / in[0];
+        }, speed, maf));
+        DerivedSignal twice = dispatcher.add(new DerivedSignal("Twice", in -> in[0] * 2, ratio));
+        ArrayList<String> changes = new ArrayList<>();
+        dispatcher.addChangeListener(listener -> changes.add(listener.getName()));
+
+        /* No value until every input has one */
+        dispatcher.dispatch(0x3D3, wrap(10));
+        assertThat(ratio.getValue(), is(nullValue()));
+        assertThat(computed[0], is(0));
+
+        dispatcher.dispatch(0x3D0, wrap(5));
+        assertThat(ratio.getValue(), is(2.0));
+        assertThat(twice.getValue(), is(4.0));
+        assertThat(changes, contains("MAF", "Speed", "Ratio", "Twice"));
+
+        /* Unchanged inputs are not computed again */
+        dispatcher.dispatch(0x3D0, wrap(5));
+        assertThat(computed[0], is(1));
+
+        dispatcher.dispatch(0x3D0, wrap(0));
+        assertThat(ratio.getValue(), is(Double.NaN));
+    }
+
+    @Test
+    public void testDerivedSignalNeedsInputs() {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        IntCanListener speed = CanListener.getByte("Speed", 0, 0x3D0);
+        assertThrows(IllegalArgumentException.class, () -> dispatcher.add(new DerivedSignal("Twice", in -> in[0] * 2, speed)));
+    }
+
+    @Test
+    public void testRepeatedPayloadsAreSkipped() {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        int[] decoded = new int[2];
+        dispatcher.add(new IntCanListener("Speed", 0x3D0) {
+            @Override
+            public int handleInt(int id, ByteBuffer data) {
+                decoded[0]++;
+                return data.get(0);
+            }
+        });
+        dispatcher.add(new IntCanListener("Frames", 0x1C4) {
+            @Override
+            public int handleInt(int id, ByteBuffer data) {
+                return ++decoded[1];
+            }
+
+            @Override
+            protected boolean skipsRepeatedFrames() {
+                return false;
+            }
+        });
+
+        dispatcher.dispatch(0x3D0, wrap(0x10, 0x20));
+        dispatcher.dispatch(0x3D0, wrap(0x10, 0x20));
+        dispatcher.dispatch(0x3D0, wrap(0x10, 0x20, 0x00));
+        dispatcher.dispatch(0x3D0, wrap(0x11, 0x20, 0x00));
+        dispatcher.dispatch(0x1C4, wrap(0x01));
+        dispatcher.dispatch(0x1C4, wrap(0x01));
+
+        assertThat(decoded[0], is(3));
+        assertThat(decoded[1], is(2));
+        assertThat(dispatcher.getRepeated(), is(1L));
+        assertThat(dispatcher.getDispatched(), is(6L));
+    }
+
+    @Test
+    public void testExtendedFramesGoToExtendedIds() {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        IntCanListener speed = dispatcher.add(CanListener.getByte("Speed", 0, 0x3D0));
+        IntCanListener low = CanListener.getByte("Low", 0, 0x3D0);
+        dispatcher.add(low.setExtended(true));
+        /* Enough extended ids to grow the table */
+        List<IntCanListener> extended = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            extended.add(dispatcher.add(CanListener.getByte("Pgn " + i, 0, 0x18FE0000 + i)));
+        }
+
+        dispatcher.dispatch(1, 0x3D0, false, new byte[] {1}, 0, 1);
+        /* An extended frame with a low id is not the standard id */
+        dispatcher.dispatch(2, 0x3D0, true, new byte[] {2}, 0, 1);
+        dispatcher.dispatch(3, 0x3D0, false, new byte[] {1}, 0, 1);
+        for (int i = 0; i < 100; i++) {
+            dispatcher.dispatch(4, 0x18FE0000 + i, true, new byte[] {(byte) i}, 0, 1);
+        }
+
+        assertThat(speed.getInt(), is(1));
+        assertThat(low.getInt(), is(2));
+        assertThat(dispatcher.getRepeated(), is(1L));
+        for (int i = 0; i < 100; i++) {
+            assertThat(extended.get(i).getInt(), is(i));
+        }
+        assertThat(dispatcher.getIds().size(), is(101));
+    }
+}
@@ -0,0 +1,63 @@
+package dk.lbloft;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+public class FramePipelineTest {
+
+    @Test
+    public void testDispatchOnClose() {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        IntCanListener speed = dispatcher.add(CanListener.getByte("Speed", 0, 0x3D0));
+        FramePipeline pipeline = new FramePipeline(dispatcher).start();
+
+        for (int i = 1; i <= 100; i++) {
+            assertThat(pipeline.offer(i, 0x3D0, false, new byte[] {(byte) i}, 1), is(true));
+        }
+        pipeline.close();
+
+        assertThat(pipeline.getReceived(), is(100L));
+        assertThat(dispatcher.getDispatched(), is(100L));
+        assertThat(speed.getInt(), is(100));
+    }
+
+    @Test
+    public void testDropWhenFull() {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        FramePipeline pipeline = new FramePipeline(dispatcher, 4, FramePipeline.OverflowPolicy.DROP);
+
+        /* Not started, so nothing is taken from the queue */
+        for (int i = 0; i < 6; i++) {
+            pipeline.offer(i, 0x3D0, false, new byte[] {1}, 1);
+        }
+        assertThat(pipeline.size(), is(4));
+        assertThat(pipeline.getDropped(), is(2L));
+
+        pipeline.start().close();
+        assertThat(dispatcher.getDispatched(), is(4L));
+    }
+
+    @Test
+    public void testKeepDispatchingWhenListenerThrows() {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        /* Reads past the end of the short frames */
+        IntCanListener left = dispatcher.add(CanListener.getShort("Left (km)", 5, 0x619));
+        IntCanListener speed = dispatcher.add(CanListener.getByte("Speed", 0, 0x3D0));
+        FramePipeline pipeline = new FramePipeline(dispatcher, 4, FramePipeline.OverflowPolicy.BLOCK).start();
+
+        for (int i = 1; i <= 100; i++) {
+            assertThat(pipeline.offer(i, 0x619, false, new byte[] {(byte) i}, 1), is(true));
+            assertThat(pipeline.offer(i, 0x3D0, false, new byte[] {(byte) i}, 1), is(true));
+        }
+        pipeline.close();
+
+        assertThat(pipeline.getDropped(), is(0L));
+        assertThat(dispatcher.getDispatched(), is(200L));
+        assertThat(dispatcher.getErrors(), is(100L));
+        assertThat(pipeline.getFailures(), is(100L));
+        assertThat(left.hasValue(), is(false));
+        assertThat(speed.getInt(), is(100));
+    }
+}
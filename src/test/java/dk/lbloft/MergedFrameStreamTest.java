@@ -0,0 +1,57 @@
+package dk.lbloft;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+public class MergedFrameStreamTest {
+
+    @Test
+    public void testMergeByTimestamp() {
+        List<String> frames = new ArrayList<>();
+        MergedFrameStream stream = new MergedFrameStream(2, 16, 100, TimeUnit.MILLISECONDS,
+                (bus, timestamp, id, extended, data, offset, length) -> frames.add(bus + ":" + timestamp));
+
+        byte[] data = new byte[8];
+        stream.offer(0, 1000, 0x001, false, data, 8);
+        stream.offer(0, 3000, 0x001, false, data, 8);
+        stream.offer(1, 2000, 0x002, false, data, 8);
+        stream.offer(1, 4000, 0x002, false, data, 8);
+        stream.start().close();
+
+        assertThat(frames, contains("0:1000", "1:2000", "0:3000", "1:4000"));
+        assertThat(stream.getMerged(), is(4L));
+    }
+
+    @Test
+    public void testQuietBus() throws InterruptedException {
+        List<Long> frames = new ArrayList<>();
+        MergedFrameStream stream = new MergedFrameStream(2, 16, 100, TimeUnit.MILLISECONDS,
+                (bus, timestamp, id, extended, data, offset, length) -> {
+                    synchronized (frames) {
+                        frames.add(timestamp);
+                    }
+                }).start();
+
+        byte[] data = new byte[8];
+        stream.offer(0, 1_000, 0x001, false, data, 8);
+        Thread.sleep(50);
+        /* Bus 1 is silent, so the frame waits until the stream has moved past the max delay */
+        synchronized (frames) {
+            assertThat(frames, is(empty()));
+        }
+        stream.offer(0, 200_000, 0x001, false, data, 8);
+        for (int i = 0; i < 100 && frames.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        synchronized (frames) {
+            assertThat(frames, contains(1_000L));
+        }
+        stream.close();
+    }
+}
@@ -0,0 +1,20 @@
+package dk.lbloft;
+
+import org.junit.jupiter.api.Test;
+
+import static dk.lbloft.capture.CaptureFormat.EXTENDED_FLAG;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+public class QueryTest {
+
+    @Test
+    public void testParseId() {
+        assertThat(Query.parseId("3D0"), is(0x3D0));
+        assertThat(Query.parseId("0x3d0"), is(0x3D0));
+        assertThat(Query.parseId("18FEF100"), is(0x18FEF100 | EXTENDED_FLAG));
+        assertThat(Query.parseId("1FEF1"), is(0x1FEF1 | EXTENDED_FLAG));
+        /* Written with 8 digits an id below 0x800 is extended */
+        assertThat(Query.parseId("000003D0"), is(0x3D0 | EXTENDED_FLAG));
+    }
+}
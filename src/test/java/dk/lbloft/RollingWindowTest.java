@@ -0,0 +1,89 @@
+package dk.lbloft;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+public class RollingWindowTest {
+
+    @Test
+    public void testMatchesValuesInWindow() {
+        RollingWindow window = new RollingWindow(1_000_000, 256);
+        Random random = new Random(42);
+        long[] timestamps = new long[2000];
+        double[] values = new double[2000];
+        long timestamp = 0;
+        for (int i = 0; i < values.length; i++) {
+            timestamp += random.nextInt(20_000);
+            timestamps[i] = timestamp;
+            values[i] = random.nextInt(1000);
+            window.add(timestamp, values[i]);
+
+            /* Every value of the last second, the window holds up to 255 of them */
+            long now = timestamp + random.nextInt(100_000);
+            int from = i;
+            while (from > 0 && i - from < 254 && timestamps[from - 1] >= now - 1_000_000) from--;
+            if (timestamps[from] < now - 1_000_000) from = i + 1;
+            double[] expected = Arrays.copyOfRange(values, from, i + 1);
+            Arrays.sort(expected);
+
+            assertThat(window.count(now), is(expected.length));
+            if (expected.length == 0) {
+                assertThat(window.max(now), is(Double.NaN));
+                continue;
+            }
+            assertThat(window.min(now), is(expected[0]));
+            assertThat(window.max(now), is(expected[expected.length - 1]));
+            assertThat(window.mean(now), is(closeTo(Arrays.stream(expected).average().getAsDouble(), 1e-9)));
+            assertThat(window.percentile(now, 50), is(expected[(int) Math.ceil(expected.length * 0.5) - 1]));
+            assertThat(window.percentile(now, 95), is(expected[(int) Math.ceil(expected.length * 0.95) - 1]));
+        }
+    }
+
+    @Test
+    public void testAggregateSeesSpike() {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        IntCanListener rpm = dispatcher.add(CanListener.getShort("RPM", 0, 0x1C4));
+        for (WindowAggregate aggregate : WindowAggregate.of(rpm, 1_000_000, Arrays.asList(WindowAggregate.Statistic.values()))) {
+            dispatcher.add(aggregate);
+        }
+
+        dispatcher.dispatch(1_000_000, 0x1C4, ByteBuffer.wrap(new byte[] {0x03, (byte) 0xE8}));
+        dispatcher.dispatch(1_100_000, 0x1C4, ByteBuffer.wrap(new byte[] {0x13, (byte) 0x88}));
+        dispatcher.dispatch(1_200_000, 0x1C4, ByteBuffer.wrap(new byte[] {0x03, (byte) 0xE8}));
+
+        SignalSnapshot snapshot = dispatcher.snapshot(new SignalSnapshot(dispatcher.getListeners()));
+        assertThat(snapshot.getName(2), is("RPM max"));
+        assertThat(snapshot.getLong(0), is(1000L));
+        assertThat(snapshot.getDouble(1), is(1000.0));
+        assertThat(snapshot.getDouble(2), is(5000.0));
+        assertThat(snapshot.getDouble(3), is(closeTo(7000 / 3.0, 1e-9)));
+        assertThat(snapshot.getLong(4), is(3L));
+
+        /* The spike leaves the window a second later */
+        dispatcher.dispatch(2_150_000, 0x1C4, ByteBuffer.wrap(new byte[] {0x03, (byte) 0xE8}));
+        assertThat(dispatcher.snapshot(snapshot).getDouble(2), is(1000.0));
+    }
+
+    @Test
+    public void testDerivedSignalSampledOnFrames() {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        IntCanListener rpm = dispatcher.add(CanListener.getShort("RPM", 0, 0x1C4));
+        DerivedSignal half = new DerivedSignal("Half", in -> in[0] / 2, rpm);
+        WindowAggregate count = WindowAggregate.of(half, 1_000_000, Arrays.asList(WindowAggregate.Statistic.COUNT)).get(0);
+        dispatcher.add(half);
+        dispatcher.add(count);
+
+        /* Repeated payloads don't change the value, but every frame is a sample of the window */
+        for (int i = 0; i < 10; i++) {
+            dispatcher.dispatch(1_000_000 + i * 10_000, 0x1C4, ByteBuffer.wrap(new byte[] {0x03, (byte) (i < 9 ? 0xE8 : 0xE9)}));
+        }
+        assertThat(count.getDouble(), is(10.0));
+        assertThat(half.getDouble(), is(500.5));
+    }
+}
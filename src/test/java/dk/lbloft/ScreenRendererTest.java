@@ -0,0 +1,37 @@
+package dk.lbloft;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+public class ScreenRendererTest {
+
+    @Test
+    public void testOnlyChangedRows() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Console console = new Console(bytes).setSize(20, 10);
+        ScreenRenderer screen = new ScreenRenderer(console);
+
+        assertThat(screen.begin().line("Speed 10").line("RPM 800").render(), is(2));
+        assertThat(bytes.toString(), startsWith("\033[H\033[2J"));
+
+        bytes.reset();
+        assertThat(screen.begin().line("Speed 10").line("RPM 900").render(), is(1));
+        assertThat(bytes.toString(), is("\033[2;1HRPM 900\033[K\033[3;1H"));
+
+        bytes.reset();
+        assertThat(screen.begin().line("Speed 10").line("RPM 900").render(), is(0));
+        assertThat(bytes.size(), is(0));
+
+        /* Removed rows are cleared */
+        assertThat(screen.begin().line("Speed 10").render(), is(0));
+        assertThat(bytes.toString(), is("\033[2;1H\033[K\033[2;1H"));
+
+        /* A resize repaints everything */
+        console.setSize(30, 10);
+        assertThat(screen.begin().line("Speed 10").render(), is(1));
+    }
+}
@@ -0,0 +1,87 @@
+package dk.lbloft.analysis;
+
+import dk.lbloft.Main;
+import dk.lbloft.capture.CaptureFormat;
+import dk.lbloft.capture.CaptureIndex;
+import dk.lbloft.capture.CaptureWriter;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+public class TripAnalyzerTest {
+
+    @Test
+    public void testSegmentsMatchWholeCapture() throws Exception {
+        File file = File.createTempFile("trip", CaptureFormat.EXTENSION);
+        file.deleteOnExit();
+        CaptureIndex.indexFile(file).deleteOnExit();
+
+        /* 100 s of driving, the trip counter wraps the low 16 bits on the way */
+        try (CaptureWriter writer = new CaptureWriter(file)) {
+            for (int i = 0; i < 10_000; i++) {
+                long timestamp = 10_000L * i;
+                int trip = 0xFFF0 + i / 100;
+                record(writer, timestamp, 0x611, new byte[] {0, 0, 0, 0, (byte) (trip >> 24), (byte) (trip >> 16), (byte) (trip >> 8), (byte) trip});
+                record(writer, timestamp + 1, 0x1C4, new byte[] {(byte) (i % 4000 >> 8), (byte) (i % 4000), 0, 0, 0, 0, 0, 0});
+                record(writer, timestamp + 2, 0x3C5, new byte[] {(byte) (i >= 2000 && i < 7000 ? 0x80 : 0x00), 0, 0, 0, 0, 0, 0, 0});
+                record(writer, timestamp + 3, 0x3D3, new byte[] {0x01, 0x00, 0, 0, 0, 0, 0, 0});
+            }
+        }
+
+        TripAnalyzer segmented = new TripAnalyzer(Main::buildListeners, 1000);
+        TripAnalyzer whole = new TripAnalyzer(Main::buildListeners, Long.MAX_VALUE);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        List<TripSummary> parts = segmented.analyze(pool, Arrays.asList(file, new File("missing.can")));
+        List<TripSummary> one = whole.analyze(pool, Arrays.asList(file));
+
+        assertThat(parts.size(), is(1));
+        TripSummary summary = parts.get(0);
+        assertThat(summary.getFrames(), is(40_000L));
+        assertThat(summary.getDistance(), is(99L));
+        assertThat(summary.getDistance(), is(one.get(0).getDistance()));
+        assertThat(summary.getMaxRpm(), is(one.get(0).getMaxRpm()));
+        assertThat(summary.getMaxRpm(), is((int) (3999 * 1.25)));
+        /* Halving 40000 frames down to 1000 gives 64 segments, each misses at most one frame interval */
+        assertThat((double) summary.getLimiterMicros(), is(closeTo(50_000_000, 64 * 10_000)));
+        assertThat(summary.getFuelUsed(), is(closeTo(one.get(0).getFuelUsed(), one.get(0).getFuelUsed() * 64 / 10_000)));
+        assertThat(summary.getDuration(), is(one.get(0).getDuration()));
+
+        TripSummary total = TripSummary.total("Total", Arrays.asList(summary, one.get(0)));
+        assertThat(total.getTrips(), is(2));
+        assertThat(total.getDistance(), is(198L));
+        assertThat(total.getDuration(), is(2 * summary.getDuration()));
+    }
+
+    @Test
+    public void testOtherBusesAreSkipped() throws Exception {
+        File file = File.createTempFile("trip", CaptureFormat.EXTENSION);
+        file.deleteOnExit();
+        CaptureIndex.indexFile(file).deleteOnExit();
+
+        try (CaptureWriter writer = new CaptureWriter(file)) {
+            for (int i = 0; i < 100; i++) {
+                byte[] rpm = {0, (byte) i, 0, 0, 0, 0, 0, 0};
+                while (!writer.record(0, 10_000L * i, 0x1C4, false, rpm, 0, rpm.length)) Thread.sleep(1);
+                /* The same id on another bus is another signal */
+                byte[] other = {(byte) 0xFF, (byte) 0xFF, 0, 0, 0, 0, 0, 0};
+                while (!writer.record(1, 10_000L * i + 1, 0x1C4, false, other, 0, other.length)) Thread.sleep(1);
+            }
+        }
+
+        TripSummary summary = new TripAnalyzer(Main::buildListeners, 1000).analyze(new ForkJoinPool(2), Arrays.asList(file)).get(0);
+        assertThat(summary.getFrames(), is(100L));
+        assertThat(summary.getMaxRpm(), is((int) (99 * 1.25)));
+    }
+
+    private static void record(CaptureWriter writer, long timestamp, int id, byte[] data) throws InterruptedException {
+        while (!writer.record(timestamp, id, false, data, data.length)) {
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package dk.lbloft.capture;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+public class CaptureTest {
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        File file = File.createTempFile("capture", CaptureFormat.EXTENSION);
+        file.deleteOnExit();
+
+        /* Small segments so the writer has to map more than one */
+        CaptureWriter writer = new CaptureWriter(file, 10 * CaptureFormat.RECORD_SIZE, 1024);
+        for (int i = 0; i < 100; i++) {
+            assertThat(writer.record(1000L * i, 0x3D0, false, new byte[] {(byte) i, 0x02}, 2), is(true));
+        }
+        writer.record(100_000L, 0x18FEF100, true, new byte[] {1, 2, 3, 4, 5, 6, 7, 8}, 8);
+        writer.close();
+
+        assertThat(writer.getRecorded(), is(101L));
+        assertThat(file.length(), is((long) CaptureFormat.HEADER_SIZE + 101 * CaptureFormat.RECORD_SIZE));
+
+        try (CaptureReader reader = new CaptureReader(file)) {
+            assertThat(reader.size(), is(101L));
+            CaptureReader.Cursor cursor = reader.cursor();
+            for (int i = 0; i < 100; i++) {
+                assertThat(cursor.next(), is(true));
+                assertThat(cursor.timestamp(), is(1000L * i));
+                assertThat(cursor.id(), is(0x3D0));
+                assertThat(cursor.extended(), is(false));
+                assertThat(cursor.length(), is(2));
+                assertThat(cursor.data()[0], is((byte) i));
+                assertThat(cursor.data()[2], is((byte) 0));
+            }
+            assertThat(cursor.next(), is(true));
+            assertThat(cursor.id(), is(0x18FEF100));
+            assertThat(cursor.extended(), is(true));
+            assertThat(cursor.data()[7], is((byte) 8));
+            assertThat(cursor.next(), is(false));
+        }
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        File file = File.createTempFile("capture", CaptureFormat.EXTENSION);
+        file.deleteOnExit();
+        CaptureIndex.indexFile(file).deleteOnExit();
+
+        CaptureWriter writer = new CaptureWriter(file);
+        for (int i = 0; i < 10_000; i++) {
+            /* 0x3D3 only in the second block */
+            int id = i >= 5000 && i < 5010 ? 0x3D3 : 0x100 + i % 16;
+            while (!writer.record(1000L * i, id, false, new byte[] {(byte) i}, 1)) {
+                Thread.sleep(1);
+            }
+        }
+        writer.record(10_000_000L, 0x18FEF100, true, new byte[0], 0);
+        writer.close();
+
+        try (CaptureReader reader = new CaptureReader(file)) {
+            CaptureIndex index = CaptureIndex.read(CaptureIndex.indexFile(file));
+            assertThat(index.getBlocks(), is(3));
+            assertThat(index.matches(0, 0, Long.MAX_VALUE, new int[] {0x3D3}), is(false));
+            assertThat(index.matches(1, 0, Long.MAX_VALUE, new int[] {0x3D3}), is(true));
+            assertThat(index.matches(2, 0, Long.MAX_VALUE, new int[] {0x18FEF100 | CaptureFormat.EXTENDED_FLAG}), is(true));
+
+            List<Long> timestamps = new ArrayList<>();
+            long selected = CaptureIndex.load(reader).select(reader, 5_002_000, 6_000_000, new int[] {0x3D3},
+                    (bus, timestamp, id, extended, data, offset, length) -> timestamps.add(timestamp));
+            assertThat(selected, is(8L));
+            assertThat(timestamps.get(0), is(5_002_000L));
+
+            /* Without the sidecar the capture is indexed when loaded */
+            CaptureIndex.indexFile(file).delete();
+            CaptureIndex scanned = CaptureIndex.load(reader);
+            assertThat(scanned.getBlocks(), is(3));
+            assertThat(scanned.select(reader, 0, Long.MAX_VALUE, null, (bus, timestamp, id, extended, data, offset, length) -> {}), is(10_001L));
+        }
+    }
+
+    @Test
+    public void testUnclosedCapture() throws Exception {
+        File file = File.createTempFile("capture", CaptureFormat.EXTENSION);
+        file.deleteOnExit();
+        CaptureIndex.indexFile(file).deleteOnExit();
+
+        /* Like a power loss, the file still has the zero filled rest of the second segment */
+        CaptureWriter writer = new CaptureWriter(file, 100 * CaptureFormat.RECORD_SIZE, 1024);
+        for (int i = 1; i <= 150; i++) {
+            assertThat(writer.record(1000L * i, 0x3D0, false, new byte[] {(byte) i}, 1), is(true));
+        }
+        while (writer.getRecorded() < 150) {
+            Thread.sleep(1);
+        }
+        assertThat(file.length(), is(greaterThan((long) CaptureFormat.HEADER_SIZE + 150 * CaptureFormat.RECORD_SIZE)));
+
+        try (CaptureReader reader = new CaptureReader(file)) {
+            assertThat(reader.size(), is(150L));
+            CaptureReader.Cursor cursor = reader.cursor();
+            assertThat(cursor.seek(149), is(true));
+            assertThat(cursor.timestamp(), is(150_000L));
+            assertThat(CaptureIndex.load(reader).select(reader, 0, Long.MAX_VALUE, new int[] {0},
+                    (bus, timestamp, id, extended, data, offset, length) -> {}), is(0L));
+        }
+        writer.close();
+        assertThat(file.length(), is((long) CaptureFormat.HEADER_SIZE + 150 * CaptureFormat.RECORD_SIZE));
+    }
+}
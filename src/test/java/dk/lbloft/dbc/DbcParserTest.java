@@ -0,0 +1,103 @@
+package dk.lbloft.dbc;
+
+import dk.lbloft.FrameDispatcher;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+public class DbcParserTest {
+    private static final String DBC = String.join("\n",
+            "VERSION \"\"",
+            "",
+            "BO_ 452 Engine: 8 ECU",
+            " SG_ EngineSpeed : 0|16@1+ (0.25,0) [0|16383.75] \"rpm\" Vector__XXX",
+            " SG_ Gear : 12|4@1+ (1,0) [0|15] \"\" Vector__XXX",
+            " SG_ Temp : 7|8@0- (1,-40) [-168|87] \"C\" Vector__XXX",
+            " SG_ Speed : 23|16@0+ (0.01,0) [0|655.35] \"km/h\" Vector__XXX",
+            "",
+            "BO_ 2566844672 Diag: 8 ECU",
+            " SG_ Mode M : 0|8@1+ (1,0) [0|255] \"\" Vector__XXX",
+            " SG_ Voltage m1 : 8|8@1+ (0.1,0) [0|25.5] \"V\" Vector__XXX",
+            " SG_ Current m2 : 8|8@1- (1,0) [-128|127] \"A\" Vector__XXX",
+            "",
+            "CM_ SG_ 452 EngineSpeed \"Engine speed\";"
+    );
+
+    private ByteBuffer wrap(int ... bytes) {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+        for (int aByte : bytes) {
+            buffer.put((byte) aByte);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private List<DbcCanListener> load() throws Exception {
+        return DbcParser.compile(DbcParser.parse(new StringReader(DBC)));
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        List<DbcSignal> signals = DbcParser.parse(new StringReader(DBC));
+        assertThat(signals, hasSize(7));
+
+        DbcSignal speed = signals.get(0);
+        assertThat(speed.getName(), is("EngineSpeed"));
+        assertThat(speed.getMessageId(), is(452));
+        assertThat(speed.getLength(), is(16));
+        assertThat(speed.isLittleEndian(), is(true));
+        assertThat(speed.getFactor(), is(0.25));
+        assertThat(speed.getUnit(), is("rpm"));
+
+        assertThat(signals.get(4).getMessageId(), is(0x18FEF100));
+        assertThat(signals.get(4).isMultiplexor(), is(true));
+        assertThat(signals.get(6).getMultiplexValue(), is(2));
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        List<DbcCanListener> listeners = load();
+        ByteBuffer frame = wrap(0x10, 0xA7, 0x27, 0x10);
+
+        assertThat(listeners.get(0).newFrame(452, frame), is(0xA710 * 0.25));
+        assertThat(listeners.get(1).newFrame(452, frame), is(10.0));
+        assertThat(listeners.get(2).newFrame(452, wrap(0xF6)), is(-50.0));
+        assertThat(listeners.get(3).newFrame(452, frame), is(closeTo(100.0, 0.0001)));
+    }
+
+    @Test
+    public void testMultiplexed() throws Exception {
+        List<DbcCanListener> listeners = load();
+        DbcCanListener voltage = listeners.get(5);
+        DbcCanListener current = listeners.get(6);
+
+        assertThat(voltage.newFrame(0x18FEF100, wrap(0x01, 0x7B)), is(closeTo(12.3, 0.0001)));
+        assertThat(current.newFrame(0x18FEF100, wrap(0x01, 0x7B)), is(Double.NaN));
+
+        assertThat(current.newFrame(0x18FEF100, wrap(0x02, 0xFE)), is(-2.0));
+        assertThat(voltage.newFrame(0x18FEF100, wrap(0x02, 0xFE)), is(closeTo(12.3, 0.0001)));
+    }
+
+    @Test
+    public void testExtendedIdBelow800() throws Exception {
+        /* 0x1C4 with the extended flag */
+        List<DbcCanListener> listeners = DbcParser.compile(DbcParser.parse(new StringReader(String.join("\n",
+                "BO_ 2147484100 Low: 8 ECU",
+                " SG_ Pressure : 0|8@1+ (1,0) [0|255] \"kPa\" Vector__XXX"))));
+        DbcCanListener pressure = listeners.get(0);
+        assertThat(pressure.getSignal().getMessageId(), is(0x1C4));
+        assertThat(pressure.getSignal().isExtended(), is(true));
+
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        dispatcher.add(pressure);
+        dispatcher.dispatch(1, 0x1C4, false, new byte[] {7}, 0, 1);
+        assertThat(pressure.hasValue(), is(false));
+        dispatcher.dispatch(2, 0x1C4, true, new byte[] {42}, 0, 1);
+        assertThat(pressure.getDouble(), is(42.0));
+    }
+}
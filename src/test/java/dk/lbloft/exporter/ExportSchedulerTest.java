@@ -0,0 +1,65 @@
+package dk.lbloft.exporter;
+
+import dk.lbloft.CanListener;
+import dk.lbloft.FrameDispatcher;
+import dk.lbloft.SignalSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+public class ExportSchedulerTest {
+
+    private static class CountingExporter implements CanExporter {
+        final AtomicInteger exports = new AtomicInteger();
+
+        @Override
+        public void export(SignalSnapshot snapshot) {
+            exports.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void testExportOnChange() throws InterruptedException {
+        ArrayList<CanListener<?>> listeners = new ArrayList<>();
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        listeners.add(dispatcher.add(CanListener.getByte("Test", 0, 0x001)));
+
+        CountingExporter eager = new CountingExporter();
+        CountingExporter limited = new CountingExporter();
+        ExportScheduler scheduler = new ExportScheduler(dispatcher, listeners)
+                .add(eager)
+                .add(limited, 60_000, 0);
+        dispatcher.addChangeListener(scheduler);
+        scheduler.start();
+
+        /* Both export the initial values */
+        waitFor(eager, 1);
+        waitFor(limited, 1);
+
+        /* Unchanged values cost nothing */
+        dispatcher.dispatch(0x001, ByteBuffer.wrap(new byte[] {0x01}));
+        waitFor(eager, 2);
+        dispatcher.dispatch(0x001, ByteBuffer.wrap(new byte[] {0x01}));
+        Thread.sleep(50);
+        assertThat(eager.exports.get(), is(2));
+
+        dispatcher.dispatch(0x001, ByteBuffer.wrap(new byte[] {0x02}));
+        waitFor(eager, 3);
+
+        /* The rate limited exporter conflates the changes */
+        assertThat(limited.exports.get(), is(1));
+        scheduler.close();
+    }
+
+    private void waitFor(CountingExporter exporter, int exports) throws InterruptedException {
+        for (int i = 0; i < 200 && exporter.exports.get() < exports; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(exporter.exports.get(), is(exports));
+    }
+}
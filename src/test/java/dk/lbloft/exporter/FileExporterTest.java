@@ -1,14 +1,24 @@
 package dk.lbloft.exporter;
 
 import dk.lbloft.CanListener;
+import dk.lbloft.DoubleCanListener;
 import dk.lbloft.Main;
 import org.junit.jupiter.api.Test;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
 
 public class FileExporterTest {
 
@@ -32,6 +42,107 @@ public class FileExporterTest {
 
         export(exporter, listeners, 0x01);
         export(exporter, listeners, 0x02);
+        exporter.close();
+    }
+
+    @Test
+    public void testRows() throws Exception {
+        ArrayList<CanListener<?>> listeners = new ArrayList<>();
+        listeners.add(CanListener.getByte("Test", 0, 0x001));
+        listeners.add(CanListener.getShort("Scaled", 0, 0x001).setIntMapping(i -> -i));
+        listeners.add(new DoubleCanListener("Double", 0x001) {
+            @Override
+            public double handleDouble(int id, ByteBuffer data) {
+                return (data.get(0) & 0xFF) / 8.0;
+            }
+        });
+        listeners.add(CanListener.getHex(0x001, 0, 2));
+
+        File file = File.createTempFile("trip", ".log");
+        file.deleteOnExit();
+        CanExporter exporter = new FileExporter(file, 64);
+
+        export(exporter, listeners, (byte) 0x01, (byte) 0x02);
+        export(exporter, listeners, (byte) 0x0C, (byte) 0x00);
+        exporter.close();
+
+        assertThat(Files.readAllLines(file.toPath()), contains(
+                "\"Test\", \"Scaled\", \"Double\", \"001\", ",
+                "1, -258, 0.125, \"01 02\", ",
+                "12, -3072, 1.5, \"0c 00\", "
+        ));
+    }
+
+    @Test
+    public void testFullBuffers() throws Exception {
+        ArrayList<CanListener<?>> listeners = new ArrayList<>();
+        listeners.add(CanListener.getByte("Test", 0, 0x001));
+        File file = File.createTempFile("trip", ".log");
+        file.deleteOnExit();
+
+        /* Two rows fill a buffer exactly, an empty buffer must not be taken for the end of the rows */
+        CanExporter exporter = new FileExporter(file, 8);
+        for (int i = 1; i <= 9; i++) {
+            export(exporter, listeners, i);
+        }
+        exporter.close();
+
+        assertThat(Files.readAllLines(file.toPath()), contains("\"Test\", ",
+                "1, ", "2, ", "3, ", "4, ", "5, ", "6, ", "7, ", "8, ", "9, "));
+    }
+
+    @Test
+    public void testRowsWrittenWhenIdle() throws Exception {
+        ArrayList<CanListener<?>> listeners = new ArrayList<>();
+        listeners.add(CanListener.getByte("Test", 0, 0x001));
+        File file = File.createTempFile("trip", ".log");
+        file.deleteOnExit();
+
+        FileExporter exporter = new FileExporter(file).maxDelay(50);
+        export(exporter, listeners, 1);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Files.readAllLines(file.toPath()).size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(Files.readAllLines(file.toPath()), contains("\"Test\", ", "1, "));
+        exporter.close();
+    }
+
+    @Test
+    public void testRotate() throws Exception {
+        ArrayList<CanListener<?>> listeners = new ArrayList<>();
+        listeners.add(CanListener.getByte("Test", 0, 0x001));
+
+        File dir = Files.createTempDirectory("trip").toFile();
+        File file = new File(dir, "trip.log");
+        /* A row per batch and two batches per segment */
+        FileExporter exporter = new FileExporter(file, 4).maxDelay(0)
+                .rotate(20, 0)
+                .archive(Compression.GZIP, 0);
+        for (int i = 1; i <= 5; i++) {
+            export(exporter, listeners, i);
+        }
+        exporter.close();
+
+        assertThat(dir.list(), arrayContainingInAnyOrder("trip.log.gz", "trip-002.log.gz", "trip-003.log.gz"));
+        assertThat(gunzip(new File(dir, "trip.log.gz")), contains("\"Test\", ", "1, ", "2, "));
+        assertThat(gunzip(new File(dir, "trip-003.log.gz")), contains("\"Test\", ", "5, "));
+    }
+
+    @Test
+    public void testRetain() throws Exception {
+        File dir = Files.createTempDirectory("trip").toFile();
+        long modified = System.currentTimeMillis() - 10_000;
+        for (String name : new String[] {"a.log.gz", "b.log", "c.log.lz4", "d.cap"}) {
+            File file = new File(dir, name);
+            Files.write(file.toPath(), new byte[100]);
+            file.setLastModified(modified += 1000);
+        }
+        SegmentArchiver archiver = new SegmentArchiver(Compression.NONE, 250, f -> !f.getName().endsWith(".cap"));
+        archiver.setActive(new File(dir, "c.log.lz4"));
+        archiver.retain(dir);
+
+        assertThat(dir.list(), arrayContainingInAnyOrder("b.log", "c.log.lz4", "d.cap"));
     }
 
     @Test
@@ -49,6 +160,12 @@ public class FileExporterTest {
 
     // Helper methods
 
+    private List<String> gunzip(File file) throws Exception {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file))))) {
+            return reader.lines().collect(Collectors.toList());
+        }
+    }
+
     private void export(CanExporter exporter, List<CanListener<?>> listeners, int value) {
         export(exporter, listeners, new byte[] {(byte)value});
     }
@@ -0,0 +1,48 @@
+package dk.lbloft.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        long previous = -1;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            long highest = LatencyHistogram.highest(bucket);
+            assertThat(LatencyHistogram.bucket(previous + 1), is(bucket));
+            assertThat(LatencyHistogram.bucket(highest), is(bucket));
+            /* Within 1/32 of the values in the bucket */
+            assertThat(highest - previous - 1, is(lessThanOrEqualTo(Math.max(0, highest / 32))));
+            previous = highest;
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        histogram.record(-5);
+
+        assertThat(histogram.getCount(), is(1001L));
+        assertThat(histogram.getMax(), is(1_000_000L));
+        assertThat((double) histogram.getPercentile(50), is(closeTo(500_000, 500_000 / 32.0)));
+        assertThat((double) histogram.getPercentile(99), is(closeTo(990_000, 990_000 / 32.0)));
+        assertThat(histogram.getPercentile(100), is(1_000_000L));
+        assertThat(histogram.getPercentile(0), is(0L));
+    }
+
+    @Test
+    public void testReport() {
+        Latencies latencies = new Latencies();
+        latencies.record(Latencies.Stage.QUEUE, 2_000);
+        assertThat(latencies.report(), containsString("queue: n 1, p50 20"));
+        /* Only the latencies since the previous report */
+        latencies.record(Latencies.Stage.DECODE, 50_000);
+        assertThat(latencies.report(), allOf(containsString("queue: n 0;"), containsString("decode: n 1, p50 50.")));
+    }
+}
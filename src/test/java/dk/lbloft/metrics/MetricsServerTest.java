@@ -0,0 +1,70 @@
+package dk.lbloft.metrics;
+
+import dk.lbloft.CanListener;
+import dk.lbloft.FrameDispatcher;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+public class MetricsServerTest {
+
+    @Test
+    public void testWriter() {
+        StringBuilder out = new StringBuilder();
+        new MetricsWriter(out)
+                .metric("can_signal", MetricsWriter.Type.GAUGE, "Value")
+                .sample("can_signal", 12.5, "name", "Speed \"km/h\"")
+                .sample("can_signal", 3.0, "name", "Gear")
+                .sample("can_signal", Double.NaN, "name", "Fuel")
+                .sample("can_signal", Double.NEGATIVE_INFINITY);
+
+        assertThat(out.toString(), is(String.join("\n",
+                "# HELP can_signal Value",
+                "# TYPE can_signal gauge",
+                "can_signal{name=\"Speed \\\"km/h\\\"\"} 12.5",
+                "can_signal{name=\"Gear\"} 3",
+                "can_signal{name=\"Fuel\"} NaN",
+                "can_signal -Inf",
+                "")));
+    }
+
+    @Test
+    public void testScrape() throws Exception {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        dispatcher.add(CanListener.getByte("Speed", 0, 0x3D0));
+        dispatcher.add(CanListener.getBit("Lights", 0, 1, "On", "Off", 0x3D0));
+        dispatcher.dispatch(0x3D0, ByteBuffer.wrap(new byte[]{0x2A}));
+
+        try (MetricsServer server = new MetricsServer(0, dispatcher, dispatcher.getListeners())) {
+            server.add(metrics -> metrics
+                    .metric("can_frames_dropped_total", MetricsWriter.Type.COUNTER, "Dropped")
+                    .sample("can_frames_dropped_total", 7L, "bus", "can0"));
+            server.start();
+
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + MetricsServer.PATH).openConnection();
+            assertThat(connection.getResponseCode(), is(200));
+            assertThat(connection.getContentType(), startsWith("text/plain"));
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = connection.getInputStream()) {
+                byte[] buffer = new byte[4096];
+                for (int n; (n = in.read(buffer)) > 0; ) {
+                    body.write(buffer, 0, n);
+                }
+            }
+            String text = new String(body.toByteArray(), StandardCharsets.UTF_8);
+
+            assertThat(text, containsString("can_signal{name=\"Speed\"} 42\n"));
+            assertThat(text, not(containsString("Lights")));
+            assertThat(text, containsString("can_snapshot_frames 1\n"));
+            assertThat(text, containsString("can_frames_dropped_total{bus=\"can0\"} 7\n"));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package dk.lbloft.sim;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+public class SocketcandServerTest {
+
+    @Test
+    public void testSubscribe() throws Exception {
+        try (SocketcandServer server = new SocketcandServer(0, "can0").start();
+             Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            assertThat(read(in), is("< hi >"));
+
+            out.write("< open can0 >< subscribe 0 0 3D0 >< subscribe 0 0 18FEF100 >".getBytes(StandardCharsets.US_ASCII));
+            assertThat(read(in), is("< ok >"));
+            for (int i = 0; i < 100 && server.getClients() == 0; i++) {
+                Thread.sleep(10);
+            }
+            /* Subscriptions have no reply, an echo tells when they are handled */
+            out.write("< subscribe 0 0 3DX >< echo >".getBytes(StandardCharsets.US_ASCII));
+            assertThat(read(in), is("< error invalid can id 3DX >"));
+            assertThat(read(in), is("< echo >"));
+
+            server.send(12_000_042, 0x1C4, false, new byte[] {1, 2}, 2);
+            server.send(12_000_042, 0x3D0, false, new byte[] {0x2A, (byte) 0xFF}, 2);
+            server.send(1_500_000, 0x18FEF100, true, new byte[] {1}, 1);
+            server.send(42, 0x3D0, false, new byte[] {0}, 1);
+            server.flush();
+
+            assertThat(read(in), is("< frame 3D0 12.000042 2AFF >"));
+            assertThat(read(in), is("< frame 18FEF100 1.500000 01 >"));
+            assertThat(read(in), is("< frame 3D0 0.000042 00 >"));
+            assertThat(server.getSent(), is(3L));
+        }
+    }
+
+    private String read(InputStream in) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '>') {
+            sb.append((char) c);
+        }
+        return sb.append('>').toString();
+    }
+}